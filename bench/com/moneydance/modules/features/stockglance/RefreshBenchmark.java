@@ -0,0 +1,80 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+// Cost of a StockGlance refresh as the book grows: computing every row from scratch, recomputing rows against
+// already built price indexes, a refresh in which nothing changed, and totalling balances over all accounts.
+// Rows are computed sequentially or in parallel, depending on parallelThreshold (see StockGlanceEngine).
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RefreshBenchmark {
+    @Param({"10", "100", "1000"})
+    int securities;
+
+    @Param({"1", "10", "30"})
+    int years;
+
+    @Param({"1", "10", "100"})
+    int accounts;
+
+    @Param({"256", "2147483647"})
+    int parallelThreshold;
+
+    private SyntheticBook book;
+    private StockGlanceEngine.Inputs inputs;
+    private StockGlanceEngine<InMemoryDataSource.Security> engine;
+    private int refreshes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        book = new SyntheticBook(securities, years, accounts);
+        inputs = book.inputs();
+        engine = newEngine();
+        engine.compute(inputs, SyntheticBook.TODAY);
+    }
+
+    // First refresh after the book is opened, which also builds every price index.
+    @Benchmark
+    public PortfolioSnapshot<InMemoryDataSource.Security> coldRefresh() {
+        return newEngine().compute(inputs, SyntheticBook.TODAY);
+    }
+
+    private StockGlanceEngine<InMemoryDataSource.Security> newEngine() {
+        StockGlanceEngine<InMemoryDataSource.Security> engine = new StockGlanceEngine<>(book.source);
+        engine.setParallelThreshold(parallelThreshold);
+        return engine;
+    }
+
+    // Refresh in which every row is recomputed from existing price indexes, as when the date rolls over.
+    @Benchmark
+    public PortfolioSnapshot<InMemoryDataSource.Security> recomputeRows() {
+        int today = (refreshes++ % 2 == 0) ? SyntheticBook.TODAY : StockGlanceEngine.backDays(SyntheticBook.TODAY, 1);
+        return engine.compute(inputs, today);
+    }
+
+    // Refresh in which nothing changed, so every row is reused.
+    @Benchmark
+    public PortfolioSnapshot<InMemoryDataSource.Security> unchangedRefresh() {
+        return engine.compute(inputs, SyntheticBook.TODAY);
+    }
+
+    // Total shares of each security over all accounts, as BalanceLedger does when it scans the book.
+    @Benchmark
+    public Map<InMemoryDataSource.Security, Double> balanceAggregation() {
+        Map<InMemoryDataSource.Security, Double> totals = new HashMap<>();
+        for (SyntheticBook.Holding holding : book.holdings) {
+            totals.merge(holding.security, holding.shares, Double::sum);
+        }
+        return totals;
+    }
+}
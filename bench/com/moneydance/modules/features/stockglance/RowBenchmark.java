@@ -0,0 +1,125 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+// Cost of the steps that make up building the table: looking up the price at each horizon, sorting the rows,
+// and formatting the return columns.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RowBenchmark {
+    @Param({"10", "100", "1000"})
+    int securities;
+
+    @Param({"1", "10", "30"})
+    int years;
+
+    private PriceHistory[] histories;
+    private int[] horizonDates;
+    private int[] windowStarts;
+    private int[] windowEnds;
+    private double[] horizonPrices;
+    private Column.Data riskData;
+    private int yearAgo;
+    private int riskPasses;
+    private List<SecurityRow<InMemoryDataSource.Security>> shuffledRows;
+    private StockGlance.CellFormatter formatter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticBook book = new SyntheticBook(securities, years, 1);
+        List<InMemoryDataSource.Security> all = book.source.getSecurities();
+        histories = new PriceHistory[all.size()];
+        for (int i = 0; i < histories.length; i++) {
+            histories[i] = PriceHistory.build(book.source, all.get(i));
+        }
+
+        // Today, and the start of each of a long list of horizons, latest first
+        List<Horizon> horizons = Horizon.parseList("1d, 7d, 30d, 3m, ytd, 1y, 3y, 5y");
+        int dates = horizons.size() + 1;
+        horizonDates = new int[dates];
+        windowStarts = new int[dates];
+        windowEnds = new int[dates];
+        for (int i = 0; i < dates; i++) {
+            horizonDates[i] = (i == 0) ? SyntheticBook.TODAY : horizons.get(i - 1).startDate(SyntheticBook.TODAY);
+        }
+        Arrays.sort(horizonDates);
+        for (int i = 0; i < dates / 2; i++) {
+            int date = horizonDates[i];
+            horizonDates[i] = horizonDates[dates - 1 - i];
+            horizonDates[dates - 1 - i] = date;
+        }
+        for (int i = 0; i < dates; i++) {
+            windowStarts[i] = PriceHistory.windowStart(horizonDates[i], 7);
+            windowEnds[i] = PriceHistory.windowEnd(horizonDates[i], 7);
+        }
+        horizonPrices = new double[dates];
+        riskData = new Column.Data(Column.FIRST_HORIZON);
+        yearAgo = StockGlanceEngine.backDays(SyntheticBook.TODAY, RiskStats.WINDOW_DAYS);
+
+        shuffledRows = new ArrayList<>(new StockGlanceEngine<>(book.source).compute(book.inputs(), SyntheticBook.TODAY).rows);
+        Collections.shuffle(shuffledRows, new Random(securities));
+        formatter = new StockGlance.CellFormatter();
+    }
+
+    // Price of every security at every horizon, with a binary search of the history for each.
+    @Benchmark
+    public void horizonLookup(Blackhole blackhole) {
+        for (PriceHistory history : histories) {
+            for (int i = 0; i < horizonDates.length; i++) {
+                blackhole.consume(history.getPrice(horizonDates[i], windowStarts[i], windowEnds[i]));
+            }
+        }
+    }
+
+    // As above, with all horizons resolved in one backward pass over each history, as the engine does.
+    @Benchmark
+    public void horizonLookupOnePass(Blackhole blackhole) {
+        for (PriceHistory history : histories) {
+            history.getPrices(horizonDates, windowStarts, windowEnds, horizonPrices);
+            blackhole.consume(horizonPrices);
+        }
+    }
+
+    // Risk measures of every security, each from a full pass over its history. The year's window starts a day
+    // earlier on each call, which makes the stats start again.
+    @Benchmark
+    public void riskOnePass(Blackhole blackhole) {
+        int windowStart = StockGlanceEngine.backDays(yearAgo, riskPasses++ % 1000);
+        for (PriceHistory history : histories) {
+            history.getRisk(windowStart, riskData);
+            blackhole.consume(riskData.volatility);
+        }
+    }
+
+    @Benchmark
+    public List<SecurityRow<InMemoryDataSource.Security>> sortRows() {
+        List<SecurityRow<InMemoryDataSource.Security>> rows = new ArrayList<>(shuffledRows);
+        rows.sort(SecurityRow.ORDER);
+        return rows;
+    }
+
+    // Display text of every return column. Currency columns need a Moneydance CurrencyType to format, which
+    // does not exist outside a running book.
+    @Benchmark
+    public void formatRows(Blackhole blackhole) {
+        for (SecurityRow<InMemoryDataSource.Security> row : shuffledRows) {
+            for (int i = SecurityRow.FIRST_RETURN; i < SecurityRow.FIRST_RETURN + Horizon.DEFAULTS.size(); i++) {
+                blackhole.consume(formatter.formatPercent(row.values[i]));
+            }
+        }
+    }
+}
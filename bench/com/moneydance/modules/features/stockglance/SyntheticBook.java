@@ -0,0 +1,85 @@
+package com.moneydance.modules.features.stockglance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+// A generated book for benchmarks: some number of securities, each with a price snapshot on every weekday for
+// some number of years, held across some number of investment accounts. Generation is seeded, so every run of a
+// benchmark sees the same book.
+
+class SyntheticBook {
+    static final int TODAY = 20210628;
+
+    final InMemoryDataSource source = new InMemoryDataSource();
+    final Set<String> names = new HashSet<>();
+    final Holding[] holdings;                   // Each account's position in each security it holds
+
+    // A position in one security, held in one account.
+    static class Holding {
+        final int account;
+        final InMemoryDataSource.Security security;
+        final double shares;
+
+        Holding(int account, InMemoryDataSource.Security security, double shares) {
+            this.account = account;
+            this.security = security;
+            this.shares = shares;
+        }
+    }
+
+    SyntheticBook(int securityCount, int years, int accountCount) {
+        Random random = new Random(securityCount * 31L + years * 7L + accountCount);
+        int firstDate = StockGlanceEngine.backDays(TODAY, 365 * years);
+
+        for (int s = 0; s < securityCount; s++) {
+            String symbol = "S" + s;
+            InMemoryDataSource.Security security = source.addSecurity(symbol, "Security " + s);
+            names.add(security.name);
+            if (s % 5 == 0) {
+                security.setBaseRate(0.8);      // Some securities are priced in a foreign currency
+            }
+
+            // Random walk, quoted each weekday
+            double price = 10.0 + 90.0 * random.nextDouble();
+            int dayOfWeek = 0;
+            for (int date = firstDate; date <= TODAY; date = PriceHistory.addDays(date, 1)) {
+                if (dayOfWeek++ % 7 < 5) {
+                    price = Math.max(0.01, price * (1.0 + 0.02 * random.nextGaussian()));
+                    security.addSnapshot(date, Math.round(price * 100.0) / 100.0);
+                }
+            }
+            if (years >= 5 && s % 10 == 0) {
+                security.addSplit(StockGlanceEngine.backDays(TODAY, 365 * 2), 2.0);
+            }
+        }
+
+        // Each account holds a random tenth of the securities (at least one), and each security is held somewhere
+        List<InMemoryDataSource.Security> securities = source.getSecurities();
+        Map<InMemoryDataSource.Security, Double> shares = new HashMap<>();
+        List<Holding> positions = new ArrayList<>();
+        for (int a = 0; a < accountCount; a++) {
+            for (int s = 0; s < securities.size(); s++) {
+                if (s % accountCount == a || random.nextInt(10) == 0) {
+                    InMemoryDataSource.Security security = securities.get(s);
+                    Holding holding = new Holding(a, security, 1 + random.nextInt(1000));
+                    positions.add(holding);
+                    shares.merge(security, holding.shares, Double::sum);
+                }
+            }
+        }
+        holdings = positions.toArray(new Holding[0]);
+        for (Map.Entry<InMemoryDataSource.Security, Double> entry : shares.entrySet()) {
+            entry.getKey().setShares(entry.getValue());
+        }
+    }
+
+    StockGlanceEngine.Inputs inputs() {
+        return new StockGlanceEngine.Inputs(names, false, 7);
+    }
+}
@@ -0,0 +1,144 @@
+// AccountBookDataSource.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import com.infinitekind.moneydance.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+// SecurityDataSource over a Moneydance AccountBook. Securities are the book's CurrencyTypes of type SECURITY,
+// balances come from a BalanceLedger kept current by account events, and cost bases and distributions from a
+// CostBasisLedger kept current by transaction events.
+
+class AccountBookDataSource implements SecurityDataSource<CurrencyType> {
+    private final AccountBook book;
+    private final BalanceLedger balanceLedger;
+    private final CostBasisLedger costBasisLedger;
+
+    AccountBookDataSource(AccountBook book, BalanceLedger balanceLedger, CostBasisLedger costBasisLedger) {
+        this.book = book;
+        this.balanceLedger = balanceLedger;
+        this.costBasisLedger = costBasisLedger;
+    }
+
+    @Override
+    public List<CurrencyType> getSecurities() {
+        List<CurrencyType> securities = new ArrayList<>();
+        for (CurrencyType curr : book.getCurrencies().getAllCurrencies()) {
+            if (!curr.getHideInUI() && curr.getCurrencyType() == CurrencyType.Type.SECURITY) {
+                securities.add(curr);
+            }
+        }
+        return securities;
+    }
+
+    @Override
+    public String getName(CurrencyType security) {
+        return security.getName();
+    }
+
+    @Override
+    public String getKey(CurrencyType security) {
+        return security.getUUID();
+    }
+
+    @Override
+    public String getTickerSymbol(CurrencyType security) {
+        return security.getTickerSymbol();
+    }
+
+    @Override
+    public double getBaseRate(CurrencyType security) {
+        return security.getBaseRate();
+    }
+
+    @Override
+    public double getBalance(CurrencyType security) {
+        return balanceLedger.getBalance(security);
+    }
+
+    @Override
+    public double getCostBasis(CurrencyType security) {
+        return costBasisLedger.getCostBasis(security);
+    }
+
+    @Override
+    public double getDistributions(CurrencyType security, int after, int through) {
+        return costBasisLedger.getDistributions(security, after, through);
+    }
+
+    @Override
+    public int getSnapshotCount(CurrencyType security) {
+        return security.getSnapshots().size();
+    }
+
+    @Override
+    public int getSplitCount(CurrencyType security) {
+        return security.getSplits().size();
+    }
+
+    @Override
+    public void loadSnapshots(CurrencyType security, int from, int to, int[] dates, double[] prices) {
+        List<CurrencySnapshot> snapshots = security.getSnapshots();
+        for (int i = from; i < to; i++) {
+            CurrencySnapshot snap = snapshots.get(i);
+            int snapDate = snap.getDateInt();
+            dates[i] = snapDate;
+            prices[i] = 1.0 / security.adjustRateForSplitsInt(snapDate, snap.getRate());
+        }
+    }
+
+    @Override
+    public long getSnapshotChecksum(CurrencyType security, int from, int to) {
+        List<CurrencySnapshot> snapshots = security.getSnapshots();
+        long checksum = 0;
+        for (int i = from; i < to; i++) {
+            CurrencySnapshot snap = snapshots.get(i);
+            checksum += SecurityDataSource.checksum(i, snap.getDateInt(), snap.getRate());
+        }
+        return checksum;
+    }
+
+    @Override
+    public long getSplitChecksum(CurrencyType security) {
+        List<CurrencySplit> splits = security.getSplits();
+        long checksum = 0;
+        for (int i = 0; i < splits.size(); i++) {
+            CurrencySplit split = splits.get(i);
+            checksum += SecurityDataSource.checksum(i, split.getDateInt(), split.getSplitRatio());
+        }
+        return checksum;
+    }
+}
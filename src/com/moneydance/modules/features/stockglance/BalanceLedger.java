@@ -0,0 +1,181 @@
+// BalanceLedger.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import com.infinitekind.moneydance.model.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+// Total balance of all accounts in each currency (for a security, the number of shares held). Built by a scan of every
+// account once, when a balance is first asked for, and then kept current from AccountListener events, so a change to
+// one account's balance costs O(1) instead of a rescan of the book. Balances are kept in Moneydance's long units, so
+// repeated updates do not accumulate rounding error and the ledger can be compared exactly against a fresh scan.
+
+class BalanceLedger {
+    private final AccountBook book;
+    private final Map<Account, Holding> holdings = new HashMap<>();     // Last known balance of each account
+    private final Map<CurrencyType, Long> totals = new HashMap<>();     // Sum of holdings in each currency
+    private boolean built = false;                                      // Book has been scanned
+
+    // Currency and balance of an account when the ledger last saw it.
+    private static class Holding {
+        final CurrencyType curr;
+        final long balance;
+
+        Holding(CurrencyType curr, long balance) {
+            this.curr = curr;
+            this.balance = balance;
+        }
+    }
+
+    // Does not scan the book, so it is cheap to create on the Swing thread while a book is opened.
+    BalanceLedger(AccountBook book) {
+        this.book = book;
+    }
+
+    synchronized void rebuild() {
+        holdings.clear();
+        totals.clear();
+        for (Account acct : AccountUtil.allMatchesForSearch(book, AcctFilter.ALL_ACCOUNTS_FILTER)) {
+            record(acct);
+        }
+        built = true;
+    }
+
+    // Events may have been missed (e.g., while the view was inactive), so scan the book again when a balance is
+    // next asked for.
+    synchronized void invalidate() {
+        holdings.clear();
+        totals.clear();
+        built = false;
+    }
+
+    private void ensureBuilt() {
+        if (!built) {
+            rebuild();
+        }
+    }
+
+    // Balance in the currency, in the currency's units (shares for a security).
+    synchronized double getBalance(CurrencyType curr) {
+        ensureBuilt();
+        Long total = totals.get(curr);
+        return (total == null) ? 0.0 : total / 10000.0;
+    }
+
+    // Currency of an account when the ledger last saw it, or null if it has not seen the account (or not yet
+    // scanned the book, which this does not do).
+    synchronized CurrencyType getCurrency(Account acct) {
+        Holding holding = holdings.get(acct);
+        return (holding == null) ? null : holding.curr;
+    }
+
+    // Copy of the balance in every currency that some account holds.
+    synchronized Map<CurrencyType, Double> getBalances() {
+        ensureBuilt();
+        Map<CurrencyType, Double> balances = new HashMap<>();
+        for (Map.Entry<CurrencyType, Long> entry : totals.entrySet()) {
+            balances.put(entry.getKey(), entry.getValue() / 10000.0);
+        }
+        return balances;
+    }
+
+    // An account (and any subaccounts it arrived with) was added to the book.
+    synchronized void accountAdded(Account acct) {
+        if (!built) {
+            return;                                 // The scan will see it
+        }
+        record(acct);
+        for (Account sub : acct.getSubAccounts()) {
+            accountAdded(sub);
+        }
+    }
+
+    // An account's balance, or possibly its currency, changed.
+    synchronized void accountChanged(Account acct) {
+        if (built) {
+            record(acct);
+        }
+    }
+
+    // An account (and so its subaccounts) was removed from the book.
+    synchronized void accountDeleted(Account acct) {
+        if (!built) {
+            return;
+        }
+        forget(acct);
+        for (Account sub : acct.getSubAccounts()) {
+            accountDeleted(sub);
+        }
+    }
+
+    // Check the ledger against a full scan of the book. If they disagree, adopt the scan's balances and
+    // return false.
+    synchronized boolean verify() {
+        ensureBuilt();
+        Map<CurrencyType, Long> incremental = nonZero(totals);
+        rebuild();
+        return incremental.equals(nonZero(totals));
+    }
+
+    // Currencies of deleted accounts linger with a zero total, which a fresh scan would not have.
+    private static Map<CurrencyType, Long> nonZero(Map<CurrencyType, Long> balances) {
+        Map<CurrencyType, Long> result = new HashMap<>();
+        for (Map.Entry<CurrencyType, Long> entry : balances.entrySet()) {
+            if (entry.getValue() != 0) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private void record(Account acct) {
+        forget(acct);
+        Holding holding = new Holding(acct.getCurrencyType(), acct.getCurrentBalance());
+        holdings.put(acct, holding);
+        adjustTotal(holding.curr, holding.balance);
+    }
+
+    private void forget(Account acct) {
+        Holding old = holdings.remove(acct);
+        if (old != null) {
+            adjustTotal(old.curr, -old.balance);
+        }
+    }
+
+    private void adjustTotal(CurrencyType curr, long delta) {
+        totals.put(curr, totals.getOrDefault(curr, 0L) + delta);
+    }
+}
@@ -0,0 +1,64 @@
+// BookListeners.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+
+// Keeps a view's listeners registered with the book only while the view is active, as Moneydance asks of home
+// page views. The ledgers are kept current from those listeners' events, so events that arrive while the view
+// is inactive (or before it is first activated) are missed. Whenever the view becomes active, once its listeners
+// are registered again, eventsMissed is run, which marks what the events maintain as stale so it is rescanned
+// from the book when next needed.
+
+class BookListeners {
+    private final Runnable add;                     // Registers the listeners
+    private final Runnable remove;                  // Unregisters them, harmless if they are not registered
+    private final Runnable eventsMissed;
+    private boolean active = false;
+
+    BookListeners(Runnable add, Runnable remove, Runnable eventsMissed) {
+        this.add = add;
+        this.remove = remove;
+        this.eventsMissed = eventsMissed;
+    }
+
+    synchronized void setActive(boolean active) {
+        remove.run();                               // At most one of each listener
+        if (active) {
+            add.run();
+            if (!this.active) {
+                eventsMissed.run();
+            }
+        }
+        this.active = active;
+    }
+}
@@ -0,0 +1,200 @@
+// Column.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+// A numeric column of the table: its heading, how it is displayed, which prices and other data it needs, and how
+// its value is computed from them. The engine computes only the columns that are visible, and looks up only the
+// prices and data those columns (and the missing price filter) need, so a column that is costly to compute costs
+// nothing while hidden.
+
+class Column {
+    enum Type { CURRENCY0, CURRENCY2, PERCENT }
+
+    // Computes a column's value for one security.
+    interface Function {
+        double compute(Data data);
+    }
+
+    // What the columns are computed from, for one security. The engine fills in only what the computed columns
+    // need: prices at their slots, and the other sources they name.
+    static class Data {
+        final double[] prices;                      // Split-adjusted price at each price slot, NaN if not looked up
+        final double[] distributions;               // If sources includes DISTRIBUTIONS, per share paid from
+                                                    // each horizon's start through today
+        final double[] benchmarkReturns;            // If sources includes BENCHMARK, the benchmark's return
+                                                    // from each horizon's start through today
+        double shares;
+        double costBasis = Double.NaN;              // If sources includes COST_BASIS
+        double volatility = Double.NaN;             // If sources includes RISK
+        double maxDrawdown = Double.NaN;
+        double yearHigh = Double.NaN;
+        double yearLow = Double.NaN;
+        int sources;                                // Which of the sources were looked up
+
+        Data(int slotCount) {
+            this.prices = new double[slotCount];
+            this.distributions = new double[slotCount];
+            this.benchmarkReturns = new double[slotCount];
+        }
+    }
+
+    // Price slots: today, yesterday, and then the start of each horizon in order.
+    static final int TODAY = 0;
+    static final int YESTERDAY = 1;
+    static final int FIRST_HORIZON = 2;
+
+    // Sources, beyond prices and shares, that a column may need.
+    static final int COST_BASIS = 1;
+    static final int DISTRIBUTIONS = 2;
+    static final int RISK = 4;
+    static final int BENCHMARK = 8;
+    static final int SHARES = 16;                   // Always looked up; marks the columns that use them
+    static final int HOLDINGS = SHARES | COST_BASIS | DISTRIBUTIONS;     // Sources from the user's transactions
+
+    static final int MAX_COLUMNS = 64;              // Sets of columns are bit masks
+    static final int FIXED_COLUMNS = 10;            // Columns that are not per horizon
+    static final int HORIZON_COLUMNS = 3;           // Columns for each horizon: price, total and excess return
+
+    final String key;                               // Identifies the column in preferences
+    final String label;
+    final Type type;
+    final int[] priceSlots;                         // Prices it depends on
+    final int sources;                              // Other sources it depends on
+    final Function function;
+    final boolean optional;                         // Hidden until the user shows it
+
+    Column(String key, String label, Type type, int[] priceSlots, int sources, Function function,
+           boolean optional) {
+        this.key = key;
+        this.label = label;
+        this.type = type;
+        this.priceSlots = priceSlots;
+        this.sources = sources;
+        this.function = function;
+        this.optional = optional;
+    }
+
+    Column(String key, String label, Type type, int[] priceSlots, int sources, Function function) {
+        this(key, label, type, priceSlots, sources, function, false);
+    }
+
+    Column(String key, String label, Type type, int[] priceSlots, Function function) {
+        this(key, label, type, priceSlots, 0, function);
+    }
+
+    // The numeric columns, in display order, for a list of return horizons. Their indexes match SecurityRow's
+    // PRICE, CHANGE, BALANCE, and FIRST_RETURN + horizon, followed by the total return and the excess return for
+    // each horizon and the cost basis and risk columns. A total return adds back the distributions paid since the
+    // horizon's start. An excess return is the price return less the benchmark's over the same horizon. Total and
+    // excess returns are optional, like the risk columns, so the default table needs neither the distributions
+    // (which scan the book's transactions) nor a benchmark.
+    static List<Column> forHorizons(List<Horizon> horizons) {
+        List<Column> columns = new ArrayList<>();
+        columns.add(new Column("price", "Price", Type.CURRENCY2, new int[] {TODAY},
+                               d -> d.prices[TODAY]));
+        columns.add(new Column("change", "Change", Type.CURRENCY2, new int[] {TODAY, YESTERDAY},
+                               d -> d.prices[TODAY] - d.prices[YESTERDAY]));
+        columns.add(new Column("balance", "Balance", Type.CURRENCY0, new int[] {TODAY}, SHARES,
+                               d -> d.shares * d.prices[TODAY]));
+        int horizonCount = Math.min(horizons.size(), Horizon.MAX_HORIZONS);
+        for (int i = 0; i < horizonCount; i++) {
+            Horizon horizon = horizons.get(i);
+            int slot = FIRST_HORIZON + i;
+            columns.add(new Column(horizon.getSpec(), horizon.getLabel(), Type.PERCENT, new int[] {TODAY, slot},
+                                   d -> (d.prices[TODAY] - d.prices[slot]) / d.prices[slot]));
+        }
+        for (int i = 0; i < horizonCount; i++) {
+            Horizon horizon = horizons.get(i);
+            int slot = FIRST_HORIZON + i;
+            columns.add(new Column("total" + horizon.getSpec(), horizon.getLabel() + " Total", Type.PERCENT,
+                                   new int[] {TODAY, slot}, DISTRIBUTIONS,
+                                   d -> (d.prices[TODAY] + d.distributions[slot] - d.prices[slot]) / d.prices[slot],
+                                   true));
+        }
+        for (int i = 0; i < horizonCount; i++) {
+            Horizon horizon = horizons.get(i);
+            int slot = FIRST_HORIZON + i;
+            columns.add(new Column("excess" + horizon.getSpec(), horizon.getLabel() + " Excess", Type.PERCENT,
+                                   new int[] {TODAY, slot}, BENCHMARK,
+                                   d -> (d.prices[TODAY] - d.prices[slot]) / d.prices[slot] - d.benchmarkReturns[slot],
+                                   true));
+        }
+        columns.add(new Column("cost", "Cost Basis", Type.CURRENCY0, new int[0], COST_BASIS,
+                               d -> d.costBasis));
+        columns.add(new Column("gain", "Gain", Type.CURRENCY0, new int[] {TODAY}, SHARES | COST_BASIS,
+                               d -> d.shares * d.prices[TODAY] - d.costBasis));
+        columns.add(new Column("gainpct", "Gain %", Type.PERCENT, new int[] {TODAY}, SHARES | COST_BASIS,
+                               d -> (d.shares * d.prices[TODAY] - d.costBasis) / d.costBasis));
+        columns.add(new Column("volatility", "Volatility", Type.PERCENT, new int[0], RISK,
+                               d -> d.volatility, true));
+        columns.add(new Column("drawdown", "Max Drawdown", Type.PERCENT, new int[0], RISK,
+                               d -> d.maxDrawdown, true));
+        columns.add(new Column("fromhigh", "From 52w High", Type.PERCENT, new int[] {TODAY}, RISK,
+                               d -> (d.prices[TODAY] - d.yearHigh) / d.yearHigh, true));
+        columns.add(new Column("fromlow", "From 52w Low", Type.PERCENT, new int[] {TODAY}, RISK,
+                               d -> (d.prices[TODAY] - d.yearLow) / d.yearLow, true));
+        return Collections.unmodifiableList(columns);
+    }
+
+    // Number of price slots the columns use.
+    static int slotCount(List<Column> columns) {
+        int count = FIRST_HORIZON;
+        for (Column column : columns) {
+            for (int slot : column.priceSlots) {
+                count = Math.max(count, slot + 1);
+            }
+        }
+        return count;
+    }
+
+    // Mask of the columns computed from public prices alone, not from the user's holdings.
+    static long priceColumns(List<Column> columns) {
+        long mask = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            if ((columns.get(i).sources & HOLDINGS) == 0) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    // Mask of every column.
+    static long allColumns(List<Column> columns) {
+        return (columns.size() == MAX_COLUMNS) ? -1L : (1L << columns.size()) - 1;
+    }
+}
@@ -0,0 +1,316 @@
+// CorrelationMatrix.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// Correlations and covariances of the returns of a list of securities over the year through today. Returns are from
+// each snapshot date in the period on which every security has a price to the next such date, so each security's are
+// aligned with every other's. A security quoted on far fewer days than the best-quoted one is left out, so one thinly
+// quoted security does not leave too few common dates for all the others. The returns are gathered once into a single
+// primitive array, a row per security, centered, and then multiplied row by row. The products are computed in square
+// blocks of rows, so a block's rows stay in cache while they are used, and the blocks are spread across a pool of
+// workers. Immutable; a matrix records the price history versions it was computed from, so it can be reused while they
+// are current.
+
+class CorrelationMatrix<S> {
+    static final int DAYS = 365;                    // Period whose returns are correlated, through today
+    private static final int BLOCK = 32;            // Rows in a block of products
+    private static final int MIN_DATES = 3;         // Common dates needed, for two returns
+    static final double MIN_COVERAGE = 0.8;         // Days quoted needed, relative to the best-quoted security
+
+    private final List<S> requested;                // Securities asked for, and their histories' versions
+    private final int[] versions;
+    private final int today;
+
+    final List<S> securities;                       // Rows and columns, in the order asked for
+    final List<S> omitted;                          // Asked for, but quoted on too few days in the period
+    final int firstDate;                            // First and last common dates (yyyymmdd), 0 if none
+    final int lastDate;
+    final int returnCount;                          // Aligned returns of each security, 0 if too few
+    private final double[] correlations;            // Row-major, one row per security
+    private final double[] covariances;
+
+    private CorrelationMatrix(List<S> requested, int[] versions, int today, List<S> securities, List<S> omitted,
+                              int firstDate, int lastDate, int returnCount, double[] correlations,
+                              double[] covariances) {
+        this.requested = requested;
+        this.versions = versions;
+        this.today = today;
+        this.securities = securities;
+        this.omitted = omitted;
+        this.firstDate = firstDate;
+        this.lastDate = lastDate;
+        this.returnCount = returnCount;
+        this.correlations = correlations;
+        this.covariances = covariances;
+    }
+
+    int size() {
+        return securities.size();
+    }
+
+    // Correlation of the returns of securities i and j, NaN if either's did not vary.
+    double getCorrelation(int i, int j) {
+        return correlations[i * securities.size() + j];
+    }
+
+    // Covariance of the returns (log of the price ratio) of securities i and j.
+    double getCovariance(int i, int j) {
+        return covariances[i * securities.size() + j];
+    }
+
+    // The matrix for the same securities, with the same prices, as of the same day.
+    boolean isCurrent(List<S> securities, List<PriceHistory> histories, int today) {
+        if (today != this.today || !securities.equals(requested)) {
+            return false;
+        }
+        for (int s = 0; s < versions.length; s++) {
+            if (histories.get(s).getVersion() != versions[s]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compute the matrix of the securities, whose price histories are histories, as of today. pool, if not null,
+    // computes the products in parallel.
+    static <S> CorrelationMatrix<S> compute(List<S> requested, List<PriceHistory> histories, int today,
+                                            ForkJoinPool pool) {
+        int from = PriceHistory.addDays(today, -DAYS);
+        int firstDay = RiskStats.epochDay(from);
+        int[] versions = new int[requested.size()];
+        int[] firstEntries = new int[requested.size()];
+        int[] lastEntries = new int[requested.size()];
+
+        // Days each security is quoted on in the period
+        int[] quoted = new int[requested.size()];
+        int mostQuoted = 0;
+        for (int s = 0; s < requested.size(); s++) {
+            PriceHistory history = histories.get(s);
+            versions[s] = history.getVersion();
+            firstEntries[s] = history.indexAtOrBefore(from - 1) + 1;
+            lastEntries[s] = history.indexAtOrBefore(today);
+            int days = 0;
+            int last = -1;
+            for (int i = firstEntries[s]; i <= lastEntries[s]; i++) {
+                int day = RiskStats.epochDay(history.dateAt(i)) - firstDay;
+                if (RiskStats.usable(history.priceAt(i)) && day != last) {
+                    days++;
+                    last = day;
+                }
+            }
+            quoted[s] = days;
+            mostQuoted = Math.max(mostQuoted, days);
+        }
+
+        // Securities quoted on at least two days, and on nearly as many as the best-quoted, and how many of them
+        // have a price on each day
+        int minQuoted = Math.max(2, (int) Math.ceil(MIN_COVERAGE * mostQuoted));
+        List<S> securities = new ArrayList<>();
+        List<PriceHistory> included = new ArrayList<>();
+        List<S> omitted = new ArrayList<>();
+        int[] requestedIndex = new int[requested.size()];         // Of each included security
+        for (int s = 0; s < requested.size(); s++) {
+            if (quoted[s] >= minQuoted) {
+                requestedIndex[securities.size()] = s;
+                securities.add(requested.get(s));
+                included.add(histories.get(s));
+            } else {
+                omitted.add(requested.get(s));
+            }
+        }
+        int n = securities.size();
+        int[] counts = new int[DAYS + 1];
+        for (int row = 0; row < n; row++) {
+            int s = requestedIndex[row];
+            PriceHistory history = included.get(row);
+            int last = -1;
+            for (int i = firstEntries[s]; i <= lastEntries[s]; i++) {
+                int day = RiskStats.epochDay(history.dateAt(i)) - firstDay;
+                if (RiskStats.usable(history.priceAt(i)) && day != last) {
+                    counts[day]++;
+                    last = day;
+                }
+            }
+        }
+
+        // The common dates, and each security's returns between them
+        int[] commonIndex = new int[DAYS + 1];
+        int dateCount = 0;
+        int firstCommon = -1;
+        int lastCommon = -1;
+        for (int day = 0; day <= DAYS; day++) {
+            boolean common = n > 0 && counts[day] == n;
+            commonIndex[day] = common ? dateCount++ : -1;
+            if (common) {
+                firstCommon = (firstCommon < 0) ? day : firstCommon;
+                lastCommon = day;
+            }
+        }
+        if (dateCount < MIN_DATES) {
+            double[] none = new double[n * n];
+            Arrays.fill(none, Double.NaN);
+            return new CorrelationMatrix<>(requested, versions, today, securities, omitted,
+                                           (dateCount == 0) ? 0 : PriceHistory.addDays(from, firstCommon),
+                                           (dateCount == 0) ? 0 : PriceHistory.addDays(from, lastCommon),
+                                           0, none, none);
+        }
+        int length = dateCount - 1;
+        double[] returns = new double[n * length];
+        double[] prices = new double[dateCount];
+        double[] norms = new double[n];
+        for (int row = 0; row < n; row++) {
+            int s = requestedIndex[row];
+            PriceHistory history = included.get(row);
+            for (int i = firstEntries[s]; i <= lastEntries[s]; i++) {
+                double price = history.priceAt(i);
+                int index = commonIndex[RiskStats.epochDay(history.dateAt(i)) - firstDay];
+                if (index >= 0 && RiskStats.usable(price)) {
+                    prices[index] = price;                  // The last of a day's prices
+                }
+            }
+            int offset = row * length;
+            double sum = 0.0;
+            for (int k = 0; k < length; k++) {
+                double r = Math.log(prices[k + 1] / prices[k]);
+                returns[offset + k] = r;
+                sum += r;
+            }
+            double mean = sum / length;
+            double squares = 0.0;
+            for (int k = 0; k < length; k++) {
+                double centered = returns[offset + k] - mean;
+                returns[offset + k] = centered;
+                squares += centered * centered;
+            }
+            norms[row] = Math.sqrt(squares);
+        }
+
+        // Products of every pair of rows, a block of rows against a block at a time
+        double[] products = new double[n * n];
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        Products all = new Products(returns, length, n, products, 0, blocks * (blocks + 1) / 2);
+        if (pool != null && blocks > 1 && pool.getParallelism() > 1) {
+            pool.invoke(all);
+        } else {
+            all.compute();
+        }
+
+        double[] correlations = new double[n * n];
+        double[] covariances = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                double product = products[i * n + j];
+                double covariance = product / (length - 1);
+                double correlation = (norms[i] > 0.0 && norms[j] > 0.0) ? product / (norms[i] * norms[j])
+                                                                        : Double.NaN;
+                covariances[i * n + j] = covariances[j * n + i] = covariance;
+                correlations[i * n + j] = correlations[j * n + i] = correlation;
+            }
+        }
+        return new CorrelationMatrix<>(requested, versions, today, Collections.unmodifiableList(securities),
+                                       Collections.unmodifiableList(omitted), PriceHistory.addDays(from, firstCommon),
+                                       PriceHistory.addDays(from, lastCommon), length, correlations, covariances);
+    }
+
+    // Computes the products of the pairs of rows in a range of blocks of the upper triangle, numbered row by row
+    // (block 0 against 0, 1, 2, ..., then 1 against 1, 2, ...), splitting the range among workers. Each product
+    // is computed by exactly one task, in the same way however the work is split.
+    private static class Products extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] rows;
+        private final int length;
+        private final int n;
+        private final double[] products;
+        private final int from;
+        private final int to;
+
+        Products(double[] rows, int length, int n, double[] products, int from, int to) {
+            this.rows = rows;
+            this.length = length;
+            this.n = n;
+            this.products = products;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Products(rows, length, n, products, from, middle),
+                          new Products(rows, length, n, products, middle, to));
+                return;
+            }
+            int blocks = (n + BLOCK - 1) / BLOCK;
+            int rowBlock = 0;
+            int remaining = from;                           // Find the from'th block
+            while (remaining >= blocks - rowBlock) {
+                remaining -= blocks - rowBlock;
+                rowBlock++;
+            }
+            int columnBlock = rowBlock + remaining;
+            int rowEnd = Math.min(n, (rowBlock + 1) * BLOCK);
+            int columnEnd = Math.min(n, (columnBlock + 1) * BLOCK);
+            for (int i = rowBlock * BLOCK; i < rowEnd; i++) {
+                for (int j = Math.max(i, columnBlock * BLOCK); j < columnEnd; j++) {
+                    products[i * n + j] = dot(rows, i * length, j * length, length);
+                }
+            }
+        }
+    }
+
+    // Dot product of a[i .. i+length) and a[j .. j+length), summed in four independent parts.
+    private static double dot(double[] a, int i, int j, int length) {
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int k = 0;
+        for (; k + 3 < length; k += 4) {
+            s0 += a[i + k] * a[j + k];
+            s1 += a[i + k + 1] * a[j + k + 1];
+            s2 += a[i + k + 2] * a[j + k + 2];
+            s3 += a[i + k + 3] * a[j + k + 3];
+        }
+        for (; k < length; k++) {
+            s0 += a[i + k] * a[j + k];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
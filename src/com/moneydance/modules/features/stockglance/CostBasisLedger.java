@@ -0,0 +1,289 @@
+// CostBasisLedger.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import com.infinitekind.moneydance.model.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Cost basis of the shares held in each security, and the distributions paid per share, from the buy, sell and
+// dividend transactions in the book's security accounts. Built by a scan of every security account's
+// transactions once, when a cost basis or distribution is first asked for (so not at all while no column that
+// uses them is shown), and then kept current from TransactionListener events. Each security account's trades are
+// indexed as Lots, so a new trade is applied in O(log n) and an edit to an old one replays only that account's
+// trades, never the book's. A security's Distributions are built from its accounts' Lots when first asked for
+// after they change.
+
+class CostBasisLedger {
+    private final AccountBook book;
+    private final Map<Account, Lots> lots = new HashMap<>();                    // Of each account with trades
+    private final Map<CurrencyType, List<Account>> accounts = new HashMap<>();   // Accounts in lots, by security
+    private final Map<Account, CurrencyType> filedUnder = new HashMap<>();      // Security of each in accounts
+    private final Map<String, List<Account>> trades = new HashMap<>();          // Accounts each transaction trades in
+    private final Map<CurrencyType, Paid> paid = new HashMap<>();               // Distributions built, by security
+    private boolean built = false;                                              // Book has been scanned
+
+    // Does not scan the book, so it is cheap to create on the Swing thread while a book is opened.
+    CostBasisLedger(AccountBook book) {
+        this.book = book;
+    }
+
+    synchronized void rebuild() {
+        lots.clear();
+        accounts.clear();
+        filedUnder.clear();
+        trades.clear();
+        paid.clear();
+        TransactionSet transactions = book.getTransactionSet();
+        for (Account acct : AccountUtil.allMatchesForSearch(book, AcctFilter.ALL_ACCOUNTS_FILTER)) {
+            if (acct.getAccountType() == Account.AccountType.SECURITY) {
+                for (AbstractTxn txn : transactions.getTransactionsForAccount(acct)) {
+                    ParentTxn parent = parentOf(txn);
+                    if (parent != null && !trades.containsKey(parent.getUUID())) {
+                        record(parent);
+                    }
+                }
+            }
+        }
+        built = true;
+    }
+
+    // Events may have been missed (e.g., while the view was inactive), so scan the book again when a cost basis
+    // or distribution is next asked for.
+    synchronized void invalidate() {
+        lots.clear();
+        accounts.clear();
+        filedUnder.clear();
+        trades.clear();
+        paid.clear();
+        built = false;
+    }
+
+    private void ensureBuilt() {
+        if (!built) {
+            rebuild();
+        }
+    }
+
+    // Cost of the shares of a security held, in the security's relative currency, or NaN if the trades do not
+    // account for all of them (e.g., shares entered as an opening balance).
+    synchronized double getCostBasis(CurrencyType security) {
+        ensureBuilt();
+        if (!tradesAccountForBalances(security)) {
+            return Double.NaN;
+        }
+        double cost = 0.0;
+        for (Account acct : accounts.getOrDefault(security, Collections.emptyList())) {
+            cost += lots.get(acct).getCost();
+        }
+        return cost;
+    }
+
+    // Distributions per share of a security paid on dates after after and through through (yyyymmdd), in the
+    // security's relative currency and today's shares, or NaN if the trades do not account for all the shares
+    // (so the shares they were paid to are not known).
+    synchronized double getDistributions(CurrencyType security, int after, int through) {
+        ensureBuilt();
+        if (!tradesAccountForBalances(security)) {
+            return Double.NaN;
+        }
+        int splitCount = security.getSplits().size();
+        Paid known = paid.get(security);
+        if (known == null || known.splitCount != splitCount) {
+            known = new Paid(distributionsPerShare(security), splitCount);
+            paid.put(security, known);
+        }
+        return known.distributions.between(after, through);
+    }
+
+    private boolean tradesAccountForBalances(CurrencyType security) {
+        for (Account acct : accounts.getOrDefault(security, Collections.emptyList())) {
+            if (lots.get(acct).getShares() != acct.getBalance()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Distributions paid to the shares held in each of a security's accounts, divided by those shares. The shares
+    // held on a date are in that date's units, so each amount is restated in today's shares as prices are.
+    private Distributions distributionsPerShare(CurrencyType security) {
+        List<Account> held = accounts.getOrDefault(security, Collections.emptyList());
+        Map<Integer, double[]> byDate = new HashMap<>();            // Amount paid and shares it was paid to
+        for (Account acct : held) {
+            lots.get(acct).forEachDistribution((date, amount, shares) -> {
+                double[] sum = byDate.computeIfAbsent(date, d -> new double[2]);
+                sum[0] += amount;
+                sum[1] += security.getDoubleValue(shares);
+            });
+        }
+        int[] dates = new int[byDate.size()];
+        double[] amounts = new double[byDate.size()];
+        int count = 0;
+        for (Map.Entry<Integer, double[]> entry : byDate.entrySet()) {
+            double[] sum = entry.getValue();
+            if (sum[1] > 0) {                                       // Else paid on no shares, e.g., misdated
+                dates[count] = entry.getKey();
+                amounts[count] = sum[0] / sum[1] / security.adjustRateForSplitsInt(dates[count], 1.0);
+                count++;
+            }
+        }
+        return (count == 0) ? Distributions.NONE : new Distributions(dates, amounts, count);
+    }
+
+    // A transaction was added or changed. Its trades replace any it had before.
+    synchronized void transactionChanged(AbstractTxn txn) {
+        ParentTxn parent = parentOf(txn);
+        if (built && parent != null) {
+            record(parent);
+        }
+    }
+
+    synchronized void transactionRemoved(AbstractTxn txn) {
+        ParentTxn parent = parentOf(txn);
+        if (!built || parent == null) {
+            return;
+        }
+        if (txn == parent) {
+            forget(parent.getUUID());
+        } else {
+            record(parent);                                 // One of its splits was removed
+        }
+    }
+
+    // Check the ledger against a full scan of the book. If they disagree, adopt the scan's and return false.
+    synchronized boolean verify() {
+        ensureBuilt();
+        Map<CurrencyType, List<Double>> incremental = totals();
+        rebuild();
+        return incremental.equals(totals());
+    }
+
+    // Cost basis and all distributions of each security.
+    private Map<CurrencyType, List<Double>> totals() {
+        Map<CurrencyType, List<Double>> totals = new HashMap<>();
+        for (CurrencyType security : accounts.keySet()) {
+            totals.put(security, Arrays.asList(getCostBasis(security),
+                                               getDistributions(security, 0, Integer.MAX_VALUE)));
+        }
+        return totals;
+    }
+
+    // A security's distributions, and the number of splits it had when they were restated in today's shares.
+    private static class Paid {
+        final Distributions distributions;
+        final int splitCount;
+
+        Paid(Distributions distributions, int splitCount) {
+            this.distributions = distributions;
+            this.splitCount = splitCount;
+        }
+    }
+
+    static ParentTxn parentOf(AbstractTxn txn) {
+        return (txn instanceof ParentTxn) ? (ParentTxn) txn : txn.getParentTxn();
+    }
+
+    // Index the transaction's trades: the splits that move shares in or out of a security account, or that name
+    // the security a dividend was paid on. An acquisition costs its amount plus any commission, and a dividend is
+    // its income, both converted to the security's relative currency on the trade date.
+    private void record(ParentTxn parent) {
+        String id = parent.getUUID();
+        forget(id);
+        int date = parent.getDateInt();
+        CurrencyType cash = parent.getAccount().getCurrencyType();
+        SplitTxn commission = TxnUtil.getCommissionPart(parent);
+        InvestTxnType type = parent.getInvestTxnType();
+        SplitTxn income = (type == InvestTxnType.DIVIDEND || type == InvestTxnType.DIVIDEND_REINVEST
+                           || type == InvestTxnType.DIVIDENDXFR) ? TxnUtil.getIncomePart(parent) : null;
+        List<Account> traded = new ArrayList<>();
+        Map<Account, long[]> amounts = new HashMap<>();             // Shares and cash amount, by account
+        for (int i = 0; i < parent.getSplitCount(); i++) {
+            SplitTxn split = parent.getSplit(i);
+            Account acct = split.getAccount();
+            if (acct.getAccountType() == Account.AccountType.SECURITY && (split.getValue() != 0 || income != null)) {
+                long[] sum = amounts.computeIfAbsent(acct, a -> {
+                    traded.add(a);
+                    return new long[2];
+                });
+                sum[0] += split.getValue();
+                sum[1] += split.getAmount();
+            }
+        }
+        for (Account acct : traded) {
+            long shares = amounts.get(acct)[0];
+            long amount = amounts.get(acct)[1];
+            if (shares > 0 && commission != null && traded.size() == 1) {
+                amount += commission.getAmount();
+            }
+            // Income is credited to a category, whichever sign Moneydance gives that split
+            long distribution = (income != null && traded.size() == 1) ? Math.abs(income.getAmount()) : 0;
+            CurrencyType security = acct.getCurrencyType();
+            CurrencyType relative = security.getRelativeCurrency();
+            if (relative == null) {
+                relative = book.getCurrencies().getBaseType();
+            }
+            if (cash != relative) {
+                amount = CurrencyUtil.convertValue(amount, cash, relative, date);
+                distribution = CurrencyUtil.convertValue(distribution, cash, relative, date);
+            }
+            lots.computeIfAbsent(acct, a -> {
+                accounts.computeIfAbsent(security, s -> new ArrayList<>()).add(a);
+                filedUnder.put(a, security);
+                return new Lots(a.getUsesAverageCost());
+            }).put(id, date, shares, relative.getDoubleValue(amount), relative.getDoubleValue(distribution));
+            paid.remove(filedUnder.get(acct));
+        }
+        if (!traded.isEmpty()) {
+            trades.put(id, traded);
+        }
+    }
+
+    // Remove the transaction's trades. The distributions to clear are those of the security the trades were
+    // filed under, which is not the account's security now if that was changed since.
+    private void forget(String id) {
+        List<Account> traded = trades.remove(id);
+        if (traded != null) {
+            for (Account acct : traded) {
+                lots.get(acct).remove(id);
+                paid.remove(filedUnder.get(acct));
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+// Distributions.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.Arrays;
+
+
+// Distributions (dividends and other payouts) per share of one security, by date. Held as the distinct dates in
+// order and the running total paid through each, so the total paid over any period is the difference of two
+// totals found by binary search, in O(log n) however many distributions there are. Immutable; a security's are
+// built again when its distributions change.
+
+class Distributions {
+    static final Distributions NONE = new Distributions(new int[0], new double[0], 0);
+
+    private final int[] dates;                      // Distinct, ascending
+    private final double[] totals;                  // totals[i] is paid on dates[0 .. i-1]; one longer than dates
+
+    // Distributions per share from dates[0 .. count-1] and amounts[0 .. count-1], in any order. Amounts on the
+    // same date are added.
+    Distributions(int[] dates, double[] amounts, int count) {
+        long[] keyed = new long[count];
+        for (int i = 0; i < count; i++) {
+            keyed[i] = ((long) dates[i] << 32) | i;                 // Sorts by date, remembering the index
+        }
+        Arrays.sort(keyed);
+        int[] distinct = new int[count];
+        double[] totals = new double[count + 1];
+        int n = 0;
+        for (long key : keyed) {
+            int date = (int) (key >>> 32);
+            double amount = amounts[(int) key];
+            if (n == 0 || distinct[n - 1] != date) {
+                distinct[n] = date;
+                totals[n + 1] = totals[n];
+                n++;
+            }
+            totals[n] += amount;
+        }
+        this.dates = Arrays.copyOf(distinct, n);
+        this.totals = Arrays.copyOf(totals, n + 1);
+    }
+
+    // Total per share paid on dates after after and through through (yyyymmdd).
+    double between(int after, int through) {
+        return (through <= after) ? 0.0 : totals[paidThrough(through)] - totals[paidThrough(after)];
+    }
+
+    int size() {
+        return dates.length;
+    }
+
+    // Number of dates on or before date.
+    private int paidThrough(int date) {
+        int index = Arrays.binarySearch(dates, date);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+}
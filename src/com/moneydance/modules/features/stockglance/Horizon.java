@@ -0,0 +1,174 @@
+// Horizon.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+
+// A period over which a return is shown, e.g., 7 days, 3 months, year to date, or since inception. Written in
+// preferences as a comma-separated list of specs: "<n>d", "<n>m", "<n>y", "ytd", or "inception".
+
+class Horizon {
+    enum Unit { DAY, MONTH, YEAR, YEAR_TO_DATE, INCEPTION }
+
+    static final String DEFAULT_SPEC = "1d, 7d, 30d, 365d";
+    static final List<Horizon> DEFAULTS = parseList(DEFAULT_SPEC);
+    static final int MAX_HORIZONS = (Column.MAX_COLUMNS - Column.FIXED_COLUMNS) / Column.HORIZON_COLUMNS;
+    static final int MAX_YEARS = 100;               // Longest horizon, in any unit, so its start is a valid date
+
+    final Unit unit;
+    final int count;                // Number of units, for DAY, MONTH and YEAR
+
+    Horizon(Unit unit, int count) {
+        this.unit = unit;
+        this.count = count;
+    }
+
+    // Parse one spec, e.g., "30d". Throws IllegalArgumentException if it is not one, or if it is longer than
+    // MAX_YEARS.
+    static Horizon parse(String spec) {
+        String s = spec.trim().toLowerCase(Locale.ROOT);
+        if (s.equals("ytd")) {
+            return new Horizon(Unit.YEAR_TO_DATE, 0);
+        } else if (s.equals("inception")) {
+            return new Horizon(Unit.INCEPTION, 0);
+        }
+        if (s.length() >= 2) {
+            Unit unit;
+            int maxCount;
+            switch (s.charAt(s.length() - 1)) {
+                case 'd': unit = Unit.DAY; maxCount = MAX_YEARS * 366; break;
+                case 'm': unit = Unit.MONTH; maxCount = MAX_YEARS * 12; break;
+                case 'y': unit = Unit.YEAR; maxCount = MAX_YEARS; break;
+                default: unit = null; maxCount = 0;
+            }
+            try {
+                int count = Integer.parseInt(s.substring(0, s.length() - 1));
+                if (unit != null && count > 0 && count <= maxCount) {
+                    return new Horizon(unit, count);
+                }
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        throw new IllegalArgumentException("Not a return horizon: \"" + spec + "\"");
+    }
+
+    // Parse a comma-separated list of specs, ignoring any that are not valid and any beyond MAX_HORIZONS. Returns
+    // the defaults if none are valid.
+    static List<Horizon> parseList(String specs) {
+        List<Horizon> horizons = new ArrayList<>();
+        for (String spec : specs.split(",")) {
+            try {
+                Horizon horizon = parse(spec);
+                if (!horizons.contains(horizon) && horizons.size() < MAX_HORIZONS) {
+                    horizons.add(horizon);
+                }
+            } catch (IllegalArgumentException e) {
+                // Skip it
+            }
+        }
+        return horizons.isEmpty() ? DEFAULTS : Collections.unmodifiableList(horizons);
+    }
+
+    static String formatList(List<Horizon> horizons) {
+        StringBuilder specs = new StringBuilder();
+        for (Horizon horizon : horizons) {
+            specs.append(specs.length() == 0 ? "" : ", ").append(horizon.getSpec());
+        }
+        return specs.toString();
+    }
+
+    String getSpec() {
+        switch (unit) {
+            case DAY: return count + "d";
+            case MONTH: return count + "m";
+            case YEAR: return count + "y";
+            case YEAR_TO_DATE: return "ytd";
+            default: return "inception";
+        }
+    }
+
+    // Column heading.
+    String getLabel() {
+        switch (unit) {
+            case DAY: return (count == 1) ? "Day" : count + " Day";
+            case MONTH: return (count == 1) ? "Month" : count + " Month";
+            case YEAR: return (count == 1) ? "Year" : count + " Year";
+            case YEAR_TO_DATE: return "YTD";
+            default: return "Inception";
+        }
+    }
+
+    boolean isInception() {
+        return unit == Unit.INCEPTION;
+    }
+
+    // Date (yyyymmdd) at which the horizon starts, for a return through today. The year to date starts at the
+    // previous year's close. Since inception starts before any price, which takes the first one.
+    int startDate(int today) {
+        LocalDate date = LocalDate.of(today / 10000, (today / 100) % 100, today % 100);
+        switch (unit) {
+            case DAY: date = date.minusDays(count); break;
+            case MONTH: date = date.minusMonths(count); break;
+            case YEAR: date = date.minusYears(count); break;
+            case YEAR_TO_DATE: date = LocalDate.of(date.getYear() - 1, 12, 31); break;
+            default: return 0;
+        }
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Horizon)) {
+            return false;
+        }
+        Horizon other = (Horizon) o;
+        return unit == other.unit && count == other.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(unit, count);
+    }
+
+    @Override
+    public String toString() {
+        return getSpec();
+    }
+}
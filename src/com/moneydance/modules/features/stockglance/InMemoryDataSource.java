@@ -0,0 +1,250 @@
+// InMemoryDataSource.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+// SecurityDataSource held entirely in memory, for tests and benchmarks. Prices are recorded as quoted on their
+// date, and are adjusted for splits that occur after that date, as Moneydance does.
+
+class InMemoryDataSource implements SecurityDataSource<InMemoryDataSource.Security> {
+    private final List<Security> securities = new ArrayList<>();
+    private int securitiesAdded = 0;
+
+    static class Security {
+        final String key;               // Sequential, so the same in a book built the same way
+        final String symbol;
+        final String name;
+        private double baseRate = 1.0;
+        private double shares = 0.0;
+        private int snapshotCount = 0;
+        private int[] snapshotDates = new int[16];
+        private double[] snapshotPrices = new double[16];
+        private int splitCount = 0;
+        private int[] splitDates = new int[2];
+        private double[] splitRatios = new double[2];       // New shares per old share
+        private final Lots lots = new Lots(false);
+        private int tradeCount = 0;
+        private int distributionCount = 0;
+        private int[] distributionDates = new int[2];
+        private double[] distributionAmounts = new double[2];  // Per share, as paid on their date
+        private Distributions distributions = null;             // Built from the above when needed
+
+        Security(String key, String symbol, String name) {
+            this.key = key;
+            this.symbol = symbol;
+            this.name = name;
+        }
+
+        Security setBaseRate(double baseRate) {
+            this.baseRate = baseRate;
+            return this;
+        }
+
+        Security setShares(double shares) {
+            this.shares = shares;
+            return this;
+        }
+
+        // Record a price quote. Quotes are expected in date order.
+        Security addSnapshot(int date, double price) {
+            if (snapshotCount == snapshotDates.length) {
+                snapshotDates = Arrays.copyOf(snapshotDates, 2 * snapshotCount);
+                snapshotPrices = Arrays.copyOf(snapshotPrices, 2 * snapshotCount);
+            }
+            snapshotDates[snapshotCount] = date;
+            snapshotPrices[snapshotCount] = price;
+            snapshotCount++;
+            return this;
+        }
+
+        // Change the price of an earlier quote in place, as a user correcting a bad download does.
+        Security setSnapshotPrice(int index, double price) {
+            snapshotPrices[index] = price;
+            return this;
+        }
+
+        // Record a purchase (positive shares) at a cost, or a sale (negative shares).
+        Security addTrade(int date, double shares, double cost) {
+            lots.put(tradeCount++, date, Math.round(shares * 10000), cost);
+            return this;
+        }
+
+        // Record a distribution per share paid on a date.
+        Security addDistribution(int date, double amount) {
+            if (distributionCount == distributionDates.length) {
+                distributionDates = Arrays.copyOf(distributionDates, 2 * distributionCount);
+                distributionAmounts = Arrays.copyOf(distributionAmounts, 2 * distributionCount);
+            }
+            distributionDates[distributionCount] = date;
+            distributionAmounts[distributionCount] = amount;
+            distributionCount++;
+            distributions = null;
+            return this;
+        }
+
+        Security addSplit(int date, double ratio) {
+            if (splitCount == splitDates.length) {
+                splitDates = Arrays.copyOf(splitDates, 2 * splitCount);
+                splitRatios = Arrays.copyOf(splitRatios, 2 * splitCount);
+            }
+            splitDates[splitCount] = date;
+            splitRatios[splitCount] = ratio;
+            splitCount++;
+            distributions = null;
+            return this;
+        }
+
+        // Change the ratio of an earlier split in place.
+        Security setSplitRatio(int index, double ratio) {
+            splitRatios[index] = ratio;
+            distributions = null;
+            return this;
+        }
+
+        // Price quoted on date, restated in terms of today's shares.
+        private double adjustForSplits(int date, double price) {
+            for (int i = 0; i < splitCount; i++) {
+                if (date < splitDates[i]) {
+                    price /= splitRatios[i];
+                }
+            }
+            return price;
+        }
+
+        private Distributions getDistributions() {
+            if (distributions == null) {
+                double[] adjusted = new double[distributionCount];
+                for (int i = 0; i < distributionCount; i++) {
+                    adjusted[i] = adjustForSplits(distributionDates[i], distributionAmounts[i]);
+                }
+                distributions = new Distributions(distributionDates, adjusted, distributionCount);
+            }
+            return distributions;
+        }
+
+        @Override
+        public String toString() {
+            return symbol;
+        }
+    }
+
+    Security addSecurity(String symbol, String name) {
+        Security security = new Security("security-" + securitiesAdded++, symbol, name);
+        securities.add(security);
+        return security;
+    }
+
+    void removeSecurity(Security security) {
+        securities.remove(security);
+    }
+
+    @Override
+    public List<Security> getSecurities() {
+        return securities;
+    }
+
+    @Override
+    public String getName(Security security) {
+        return security.name;
+    }
+
+    @Override
+    public String getKey(Security security) {
+        return security.key;
+    }
+
+    @Override
+    public String getTickerSymbol(Security security) {
+        return security.symbol;
+    }
+
+    @Override
+    public double getBaseRate(Security security) {
+        return security.baseRate;
+    }
+
+    @Override
+    public double getBalance(Security security) {
+        return security.shares;
+    }
+
+    @Override
+    public double getCostBasis(Security security) {
+        return security.lots.isEmpty() ? Double.NaN : security.lots.getCost();
+    }
+
+    @Override
+    public double getDistributions(Security security, int after, int through) {
+        return security.getDistributions().between(after, through);
+    }
+
+    @Override
+    public int getSnapshotCount(Security security) {
+        return security.snapshotCount;
+    }
+
+    @Override
+    public int getSplitCount(Security security) {
+        return security.splitCount;
+    }
+
+    @Override
+    public void loadSnapshots(Security security, int from, int to, int[] dates, double[] prices) {
+        for (int i = from; i < to; i++) {
+            dates[i] = security.snapshotDates[i];
+            prices[i] = security.adjustForSplits(security.snapshotDates[i], security.snapshotPrices[i]);
+        }
+    }
+
+    @Override
+    public long getSnapshotChecksum(Security security, int from, int to) {
+        long checksum = 0;
+        for (int i = from; i < to; i++) {
+            checksum += SecurityDataSource.checksum(i, security.snapshotDates[i], security.snapshotPrices[i]);
+        }
+        return checksum;
+    }
+
+    @Override
+    public long getSplitChecksum(Security security) {
+        long checksum = 0;
+        for (int i = 0; i < security.splitCount; i++) {
+            checksum += SecurityDataSource.checksum(i, security.splitDates[i], security.splitRatios[i]);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,227 @@
+// Lots.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+// Trades in one security account, and the lots of shares they leave, for its cost basis. Trades are kept in
+// date order, with acquisitions before disposals on the same date. A disposal takes shares from the oldest lots
+// first, or, for an account that uses average cost, all acquisitions are one lot. A trade that sorts after the
+// others, such as a new one, is applied to the lots as it arrives. Any other change (a trade inserted earlier,
+// edited, or removed) marks the lots stale, and they are rebuilt from this account's trades when next needed.
+// A trade may also carry a distribution paid to the shares held before its date, e.g., a dividend (with no
+// shares) or a reinvested one (with the shares it bought).
+
+class Lots {
+    private static final Comparator<Trade> ORDER = Comparator.<Trade>comparingInt(t -> t.date)
+                                                             .thenComparing(t -> t.shares < 0)
+                                                             .thenComparingLong(t -> t.sequence);
+
+    private final boolean averageCost;
+    private final Map<Object, Trade> trades = new HashMap<>();     // By ID
+    private final TreeSet<Trade> ordered = new TreeSet<>(ORDER);
+    private long nextSequence = 0;
+
+    // Lots, oldest first, in [first, end) of the arrays
+    private long[] lotShares = new long[4];
+    private double[] lotCosts = new double[4];
+    private int first = 0;
+    private int end = 0;
+    private long shares = 0;                        // Total of the lots
+    private double cost = 0.0;
+    private boolean stale = false;                  // Lots do not reflect the trades
+
+    private static class Trade {
+        final Object id;
+        final int date;
+        final long shares;                          // Positive for an acquisition, negative for a disposal
+        final double amount;                        // Cost of an acquisition
+        final double distribution;                  // Paid to the shares held, 0 if none
+        final long sequence;                        // Order of arrival, for trades on the same date
+
+        Trade(Object id, int date, long shares, double amount, double distribution, long sequence) {
+            this.id = id;
+            this.date = date;
+            this.shares = shares;
+            this.amount = amount;
+            this.distribution = distribution;
+            this.sequence = sequence;
+        }
+    }
+
+    // Receives each distribution and the shares it was paid to.
+    interface DistributionVisitor {
+        void visit(int date, double amount, long sharesHeld);
+    }
+
+    Lots(boolean averageCost) {
+        this.averageCost = averageCost;
+    }
+
+    // Add a trade of shares (in the account's units) on a date (yyyymmdd), or replace the trade with the same ID.
+    // amount is what an acquisition cost; it is ignored for a disposal. distribution is any amount paid to the
+    // shares held before date.
+    void put(Object id, int date, long shares, double amount, double distribution) {
+        remove(id);
+        Trade trade = new Trade(id, date, shares, amount, distribution, nextSequence++);
+        trades.put(id, trade);
+        ordered.add(trade);
+        if (!stale && ordered.last() == trade) {
+            apply(trade);
+        } else {
+            stale = true;
+        }
+    }
+
+    void put(Object id, int date, long shares, double amount) {
+        put(id, date, shares, amount, 0.0);
+    }
+
+    void remove(Object id) {
+        Trade old = trades.remove(id);
+        if (old != null) {
+            ordered.remove(old);
+            stale = true;
+        }
+    }
+
+    boolean isEmpty() {
+        return trades.isEmpty();
+    }
+
+    // Shares held after the trades.
+    long getShares() {
+        refresh();
+        return shares;
+    }
+
+    // Cost of the shares held.
+    double getCost() {
+        refresh();
+        return cost;
+    }
+
+    // Pass each distribution, in date order, to visitor with the shares held at the end of the day before it.
+    // Shares are counted as the lots count them, so disposing of more than are held leaves none.
+    void forEachDistribution(DistributionVisitor visitor) {
+        long held = 0;                              // Through the day before date
+        long changed = 0;                           // On date
+        int date = 0;
+        for (Trade trade : ordered) {
+            if (trade.date != date) {
+                held = Math.max(0, held + changed);
+                changed = 0;
+                date = trade.date;
+            }
+            if (trade.distribution != 0.0) {
+                visitor.visit(date, trade.distribution, held);
+            }
+            changed += trade.shares;
+        }
+    }
+
+    private void refresh() {
+        if (stale) {
+            first = 0;
+            end = 0;
+            shares = 0;
+            cost = 0.0;
+            for (Trade trade : ordered) {
+                apply(trade);
+            }
+            stale = false;
+        }
+    }
+
+    private void apply(Trade trade) {
+        if (trade.shares > 0) {
+            acquire(trade.shares, trade.amount);
+        } else if (trade.shares < 0) {
+            dispose(-trade.shares);
+        }
+    }
+
+    private void acquire(long count, double amount) {
+        if (averageCost && first < end) {
+            lotShares[first] += count;
+            lotCosts[first] += amount;
+        } else {
+            if (end == lotShares.length) {
+                // Move the lots down, growing the arrays only if they are more than half full
+                int length = end - first;
+                int capacity = (2 * length > lotShares.length) ? 2 * lotShares.length : lotShares.length;
+                long[] newShares = (capacity == lotShares.length) ? lotShares : new long[capacity];
+                double[] newCosts = (capacity == lotCosts.length) ? lotCosts : new double[capacity];
+                System.arraycopy(lotShares, first, newShares, 0, length);
+                System.arraycopy(lotCosts, first, newCosts, 0, length);
+                lotShares = newShares;
+                lotCosts = newCosts;
+                first = 0;
+                end = length;
+            }
+            lotShares[end] = count;
+            lotCosts[end] = amount;
+            end++;
+        }
+        shares += count;
+        cost += amount;
+    }
+
+    // Take shares from the oldest lots. Disposing of more shares than are held leaves none (a short position
+    // has no cost basis).
+    private void dispose(long count) {
+        while (count > 0 && first < end) {
+            long take = Math.min(count, lotShares[first]);
+            double takenCost = (take == lotShares[first]) ? lotCosts[first]
+                                                          : lotCosts[first] * take / lotShares[first];
+            lotShares[first] -= take;
+            lotCosts[first] -= takenCost;
+            shares -= take;
+            cost -= takenCost;
+            count -= take;
+            if (lotShares[first] == 0) {
+                first++;
+            }
+        }
+        if (first == end) {
+            first = 0;
+            end = 0;
+            shares = 0;
+            cost = 0.0;                             // Don't leave rounding error behind
+        }
+    }
+}
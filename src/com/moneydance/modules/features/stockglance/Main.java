@@ -57,7 +57,14 @@ public class Main extends FeatureModule {
     }
 
     public void invoke(String uri) {
-        glance.refresh();
+        if ("metrics".equals(uri)) {
+            System.err.print(glance.getMetricsSummary());
+            return;
+        }
+        if ("verifyBalances".equals(uri)) {
+            glance.verifyBalances();
+        }
+        glance.refresh(RefreshMetrics.Trigger.INVOKE);
     }
 
     public String getName() {
@@ -0,0 +1,62 @@
+// PortfolioSnapshot.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+// Immutable result of one computation: the rows to display, in SecurityRow.ORDER, and the footer total. A partial
+// snapshot, shown while a computation is in progress, has placeholder rows (whose balances, and so the total, are
+// NaN) and no computed rows.
+
+class PortfolioSnapshot<S> {
+    final StockGlanceEngine.Inputs inputs;
+    final int today;
+    final Map<S, SecurityRow<S>> computed;          // Every displayed security, including those not shown
+    final List<SecurityRow<S>> rows;                // Rows shown in the table
+    final double totalBaseBalance;
+
+    PortfolioSnapshot(StockGlanceEngine.Inputs inputs, int today, Map<S, SecurityRow<S>> computed, List<SecurityRow<S>> rows) {
+        this.inputs = inputs;
+        this.today = today;
+        this.computed = Collections.unmodifiableMap(computed);
+        this.rows = Collections.unmodifiableList(rows);
+        double total = 0.0;
+        for (SecurityRow<S> row : rows) {
+            total += row.baseBalance;
+        }
+        this.totalBaseBalance = total;
+    }
+}
@@ -0,0 +1,316 @@
+// PriceHistory.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+
+// Split-adjusted price history of one security, built once from its snapshot list. Snapshot dates and prices
+// are kept in parallel primitive arrays sorted by date, so a price lookup is a binary search rather than a walk
+// through the security's snapshots. Checksums of the snapshots and splits it was built from are kept with it, so
+// a snapshot or split edited in place, which changes neither their counts nor the last snapshot, can be found.
+
+class PriceHistory {
+    private int[] dates;            // Snapshot dates (yyyymmdd), ascending
+    private double[] prices;        // Split-adjusted price on corresponding date
+    private int size;               // Number of valid entries in dates and prices
+    private int splitCount;         // Number of splits when prices were adjusted
+    private long snapshotChecksum;  // Of the snapshots indexed (SecurityDataSource.getSnapshotChecksum)
+    private long splitChecksum;     // Of the splits prices were adjusted for
+    private boolean unverified;     // The next update checks the whole index against the security
+    private int version;            // Incremented whenever the index changes
+    private RiskStats risk;         // Created when first asked for
+
+    PriceHistory(int[] dates, double[] prices) {
+        this.dates = dates;
+        this.prices = prices;
+        this.size = dates.length;
+        this.splitCount = 0;
+    }
+
+    private PriceHistory() {
+        this.dates = new int[0];
+        this.prices = new double[0];
+        this.size = 0;
+        this.splitCount = -1;
+    }
+
+    static <S> PriceHistory build(SecurityDataSource<S> source, S security) {
+        PriceHistory history = new PriceHistory();
+        history.update(source, security);
+        return history;
+    }
+
+    // Write the index, for SnapshotCache.
+    void write(DataOutput out) throws IOException {
+        out.writeInt(splitCount);
+        out.writeLong(snapshotChecksum);
+        out.writeLong(splitChecksum);
+        out.writeInt(version);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(dates[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeDouble(prices[i]);
+        }
+    }
+
+    // Read an index written by write. It is only as current as when it was written, so it must be checked
+    // against the security by matches before it is used.
+    static PriceHistory read(ByteBuffer in) {
+        PriceHistory history = new PriceHistory();
+        history.splitCount = in.getInt();
+        history.snapshotChecksum = in.getLong();
+        history.splitChecksum = in.getLong();
+        history.version = in.getInt();
+        int size = in.getInt();
+        if (size < 0 || size > in.remaining() / (Integer.BYTES + Double.BYTES)) {
+            throw new IllegalArgumentException("Bad price history size " + size);
+        }
+        history.dates = new int[size];
+        history.prices = new double[size];
+        in.asIntBuffer().get(history.dates);
+        in.position(in.position() + size * Integer.BYTES);
+        in.asDoubleBuffer().get(history.prices);
+        in.position(in.position() + size * Double.BYTES);
+        history.size = size;
+        return history;
+    }
+
+    // Whether the index is of the security's splits and its first size() snapshots as they are now. Reads every
+    // indexed snapshot, so it is for checking an index that may be stale, not for every update.
+    <S> boolean matches(SecurityDataSource<S> source, S security) {
+        return source.getSplitCount(security) == splitCount
+            && size <= source.getSnapshotCount(security)
+            && source.getSplitChecksum(security) == splitChecksum
+            && source.getSnapshotChecksum(security, 0, size) == snapshotChecksum;
+    }
+
+    // Have the next update check the whole index against the security, because a snapshot or split may have
+    // been edited in place.
+    void verify() {
+        unverified = true;
+    }
+
+    // Bring the index up to date with the security's snapshots. Snapshots appended after the last indexed date
+    // are added incrementally. Anything else (a new or deleted split, a snapshot inserted or removed earlier in
+    // the history) changes the split adjustment or the order of entries, so the index is rebuilt. Only the split
+    // count, the snapshot count and the last entry are compared, unless verify was called, so an edit in place
+    // to an earlier snapshot or to a split is found only by the next update after verify. Returns true if the
+    // index changed.
+    <S> boolean update(SecurityDataSource<S> source, S security) {
+        if (unverified) {
+            unverified = false;
+            if (!matches(source, security)) {
+                splitCount = -1;                        // Rebuilt below
+            }
+        }
+        int splits = source.getSplitCount(security);
+        int count = source.getSnapshotCount(security);
+
+        int start = 0;
+        if (splits == splitCount && 0 < size && size <= count) {
+            // The last indexed entry is reloaded in place. If it is unchanged, the snapshots were only appended to.
+            int lastDate = dates[size - 1];
+            double lastPrice = prices[size - 1];
+            source.loadSnapshots(security, size - 1, size, dates, prices);
+            if (dates[size - 1] == lastDate && prices[size - 1] == lastPrice) {
+                if (size == count) {
+                    return false;                       // Nothing new
+                }
+                start = size;
+            }
+        } else if (splits == splitCount && size == 0 && count == 0) {
+            return false;
+        }
+
+        if (dates.length < count) {
+            dates = Arrays.copyOf(dates, count);
+            prices = Arrays.copyOf(prices, count);
+        }
+        source.loadSnapshots(security, start, count, dates, prices);
+        if (start == 0) {
+            snapshotChecksum = source.getSnapshotChecksum(security, 0, count);
+            splitChecksum = source.getSplitChecksum(security);
+        } else {
+            snapshotChecksum += source.getSnapshotChecksum(security, start, count);
+        }
+        boolean sorted = true;
+        for (int i = Math.max(start, 1); i < count; i++) {
+            sorted &= dates[i - 1] <= dates[i];
+        }
+        size = count;
+        splitCount = splits;
+        version++;
+        if (!sorted) {
+            sortByDate();
+        }
+        if (risk != null && (start == 0 || !sorted)) {
+            risk.reset();                               // Not just appended
+        }
+        return true;
+    }
+
+    // Snapshots are normally kept in date order. Sort them here if not, so binary search works.
+    private void sortByDate() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Integer.compare(dates[i1], dates[i2]));
+        int[] newDates = new int[dates.length];
+        double[] newPrices = new double[prices.length];
+        for (int i = 0; i < size; i++) {
+            newDates[i] = dates[order[i]];
+            newPrices[i] = prices[order[i]];
+        }
+        dates = newDates;
+        prices = newPrices;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Date (yyyymmdd) and split-adjusted price of entry i, in [0, size()).
+    int dateAt(int i) {
+        return dates[i];
+    }
+
+    double priceAt(int i) {
+        return prices[i];
+    }
+
+    // Fill in data's risk measures over the whole history and the year from windowStart (yyyymmdd). Entries
+    // appended since the last call are taken in without another pass over the history.
+    void getRisk(int windowStart, Column.Data data) {
+        if (risk == null) {
+            risk = new RiskStats();
+        }
+        risk.advance(dates, prices, size, windowStart);
+        data.volatility = risk.getVolatility(dates);
+        data.maxDrawdown = risk.getMaxDrawdown();
+        data.yearHigh = risk.getHigh(prices);
+        data.yearLow = risk.getLow(prices);
+    }
+
+    // Split-adjusted price of the security as of a date. Use the most recent snapshot in the interval before
+    // the date, (T-I .. T], and failing that, the earliest snapshot in the interval after it, [T .. T+I).
+    // Returns NaN if neither interval contains a snapshot.
+    double getPrice(int asOfDate, int interval) {
+        return getPrice(asOfDate, windowStart(asOfDate, interval), windowEnd(asOfDate, interval));
+    }
+
+    // As above, with the interval given as the dates that bound it: (windowStart .. asOfDate .. windowEnd).
+    // Callers that look up many securities on the same date compute the bounds once.
+    double getPrice(int asOfDate, int windowStart, int windowEnd) {
+        return priceNear(indexAtOrBefore(asOfDate), windowStart, windowEnd);
+    }
+
+    // Prices as of several dates at once, in one backward pass over the history. asOfDates must be in descending
+    // order. Each date is found by galloping back from where the previous one was found, then searching the last
+    // step, so the cost depends on how far apart the dates are rather than being a search of the whole history
+    // for every date.
+    void getPrices(int[] asOfDates, int[] windowStarts, int[] windowEnds, double[] result) {
+        int hi = size - 1;                      // No entry after hi is on or before the current date
+        for (int k = 0; k < asOfDates.length; k++) {
+            int date = asOfDates[k];
+            int step = 1;
+            int probe = hi;
+            while (probe >= 0 && dates[probe] > date) {
+                hi = probe - 1;
+                probe -= step;
+                step <<= 1;
+            }
+            int i = search(date, Math.max(probe, 0), hi);
+            result[k] = priceNear(i, windowStarts[k], windowEnds[k]);
+            hi = i;
+        }
+    }
+
+    // Price of entry i, which is the last on or before a date, if it is in the window before the date, or else of
+    // the entry after it, if that is in the window after the date.
+    private double priceNear(int i, int windowStart, int windowEnd) {
+        if (i >= 0 && windowStart < dates[i]) {
+            return prices[i];
+        }
+        int next = i + 1;
+        if (next < size && dates[next] < windowEnd) {
+            return prices[next];
+        }
+        return Double.NaN;
+    }
+
+    // Exclusive lower bound of the interval before a date.
+    static int windowStart(int asOfDate, int interval) {
+        return (interval == StockGlanceEngine.INFINITY) ? Integer.MIN_VALUE : addDays(asOfDate, -interval);
+    }
+
+    // Exclusive upper bound of the interval after a date.
+    static int windowEnd(int asOfDate, int interval) {
+        return (interval == StockGlanceEngine.INFINITY) ? Integer.MAX_VALUE : addDays(asOfDate, interval);
+    }
+
+    // Index of last snapshot on or before date, or -1 if every snapshot is after it.
+    int indexAtOrBefore(int date) {
+        return search(date, 0, size - 1);
+    }
+
+    // Binary search of entries lo..hi, of which any before lo are on or before date and any after hi are after it.
+    private int search(int date, int lo, int hi) {
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (dates[mid] <= date) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    // Date (yyyymmdd) that is days after date (before, if days is negative).
+    static int addDays(int date, int days) {
+        LocalDate result = LocalDate.of(date / 10000, (date / 100) % 100, date % 100).plusDays(days);
+        return result.getYear() * 10000 + result.getMonthValue() * 100 + result.getDayOfMonth();
+    }
+}
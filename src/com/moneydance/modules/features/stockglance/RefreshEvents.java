@@ -0,0 +1,94 @@
+// RefreshEvents.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+// JFR events for StockGlance refreshes, so a flight recording shows when refreshes were triggered and how long
+// each phase took alongside GC and Swing thread activity. Only used through RefreshMetrics, which checks that
+// the runtime includes JFR before this class is loaded. Events cost almost nothing unless a recording is on.
+
+class RefreshEvents {
+    @Name("com.moneydance.stockglance.RefreshTrigger")
+    @Label("StockGlance Refresh Trigger")
+    @Description("Something asked StockGlance to refresh")
+    @Category({"Moneydance", "StockGlance"})
+    @StackTrace(false)
+    static class TriggerEvent extends Event {
+        @Label("Source")
+        String source;
+    }
+
+    @Name("com.moneydance.stockglance.RefreshPhase")
+    @Label("StockGlance Refresh Phase")
+    @Description("One phase of a StockGlance refresh")
+    @Category({"Moneydance", "StockGlance"})
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    static void trigger(RefreshMetrics.Trigger trigger) {
+        TriggerEvent event = new TriggerEvent();
+        if (event.shouldCommit()) {
+            event.source = trigger.label;
+            event.commit();
+        }
+    }
+
+    static Object beginPhase() {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endPhase(Object begun, RefreshMetrics.Phase phase, int rows) {
+        PhaseEvent event = (PhaseEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.label;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+}
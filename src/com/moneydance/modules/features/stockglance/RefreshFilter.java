@@ -0,0 +1,199 @@
+// RefreshFilter.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import com.infinitekind.moneydance.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Decides whether an account, transaction, or currency event can change what StockGlance displays, so that the
+// many events that cannot (bank and credit card transactions, prices of securities that are not displayed) do not
+// cause a refresh. Errs on the side of refreshing when unsure. A quote download fires a currency event per quote,
+// so a currency event is only counted, and whether any of them changed a displayed security is checked once,
+// when the refresh they requested is due.
+
+class RefreshFilter {
+    private static final Stamp[] NO_STAMPS = new Stamp[0];
+
+    private final BalanceLedger balanceLedger;
+    private final CurrencyTable currencies;
+    private volatile Set<String> displayedSecurities;
+    private final AtomicInteger currencyEvents = new AtomicInteger();   // Since the last check
+    private Stamp[] stamps = NO_STAMPS;             // Of every currency, when last checked
+
+    RefreshFilter(BalanceLedger balanceLedger, CurrencyTable currencies, Set<String> displayedSecurities) {
+        this.balanceLedger = balanceLedger;
+        this.currencies = currencies;
+        setDisplayedSecurities(displayedSecurities);
+    }
+
+    // The securities to display changed (which itself causes a refresh).
+    synchronized void setDisplayedSecurities(Set<String> securities) {
+        displayedSecurities = Collections.unmodifiableSet(new HashSet<>(securities));
+        stamps = stamps();
+    }
+
+    // Whether a change to an account, or to any of its subaccounts, affects a displayed security's balance. Must
+    // be called before the BalanceLedger sees the change, so that an account whose currency was changed away
+    // from a displayed security is recognized.
+    boolean isRelevant(Account acct) {
+        if (isDisplayed(acct.getCurrencyType()) || isDisplayed(balanceLedger.getCurrency(acct))) {
+            return true;
+        }
+        for (Account sub : acct.getSubAccounts()) {
+            if (isRelevant(sub)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether a transaction trades a displayed security, and so may change its cost basis.
+    boolean isRelevant(AbstractTxn txn) {
+        ParentTxn parent = CostBasisLedger.parentOf(txn);
+        if (parent == null) {
+            return true;
+        }
+        for (int i = 0; i < parent.getSplitCount(); i++) {
+            Account acct = parent.getSplit(i).getAccount();
+            if (acct.getAccountType() == Account.AccountType.SECURITY && isRelevant(acct)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The currency table changed. CurrencyListener does not say which currency changed, so this only notes the
+    // event, for currenciesChanged to check.
+    void currencyTableModified() {
+        currencyEvents.incrementAndGet();
+    }
+
+    // Number of currency events since the last call.
+    int takeCurrencyEvents() {
+        return currencyEvents.getAndSet(0);
+    }
+
+    // Whether the currency events since the last check may have changed a displayed security. Compares a stamp
+    // of what the table shows about each currency (name, symbol, visibility, number of price snapshots and
+    // splits, latest price, and the rates that convert prices to the relative and base currencies) with its
+    // stamp from the last check. If only currencies that are not displayed changed, the events are explained and
+    // ignored. If no stamp changed at all, the events were edits the stamps do not show, such as a corrected
+    // older snapshot or split, which may be of a displayed security, so they count as a change; the refresh they
+    // cause finds the edit by checking the price histories in full (StockGlanceEngine.verifyHistories).
+    synchronized boolean currenciesChanged() {
+        Stamp[] current = stamps();
+        boolean changed = current.length != stamps.length;  // A currency was added or removed
+        boolean explained = changed;
+        for (int i = 0; i < current.length && !changed; i++) {
+            if (!current[i].sameAs(stamps[i])) {
+                explained = true;
+                changed = current[i].displayed || stamps[i].displayed || current[i].curr != stamps[i].curr;
+            }
+        }
+        stamps = current;
+        return changed || !explained;
+    }
+
+    private Stamp[] stamps() {
+        List<Stamp> current = new ArrayList<>();
+        for (CurrencyType curr : currencies.getAllCurrencies()) {
+            current.add(new Stamp(curr, isDisplayed(curr)));
+        }
+        return current.toArray(NO_STAMPS);
+    }
+
+    // What the table shows about a currency, when it was stamped.
+    private static class Stamp {
+        final CurrencyType curr;
+        final boolean displayed;                    // A displayed security
+        final String name;
+        final String symbol;
+        final boolean hidden;
+        final int splitCount;
+        final int snapshotCount;
+        final int lastDate;                         // Of the latest snapshot, 0 if none
+        final double lastRate;
+        final double relativeRate;
+        final double baseRate;
+        final CurrencyType relativeTo;
+        final double relativeBaseRate;
+
+        Stamp(CurrencyType curr, boolean displayed) {
+            this.curr = curr;
+            this.displayed = displayed;
+            this.name = curr.getName();
+            this.symbol = curr.getTickerSymbol();
+            this.hidden = curr.getHideInUI();
+            this.splitCount = curr.getSplits().size();
+            List<CurrencySnapshot> snapshots = curr.getSnapshots();
+            this.snapshotCount = snapshots.size();
+            CurrencySnapshot last = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+            this.lastDate = (last == null) ? 0 : last.getDateInt();
+            this.lastRate = (last == null) ? 0.0 : last.getRate();
+            this.relativeRate = curr.getRelativeRate();
+            this.baseRate = curr.getBaseRate();
+            this.relativeTo = curr.getRelativeCurrency();
+            this.relativeBaseRate = (relativeTo == null) ? 0.0 : relativeTo.getBaseRate();
+        }
+
+        boolean sameAs(Stamp other) {
+            return curr == other.curr
+                && displayed == other.displayed
+                && Objects.equals(name, other.name)
+                && Objects.equals(symbol, other.symbol)
+                && hidden == other.hidden
+                && splitCount == other.splitCount
+                && snapshotCount == other.snapshotCount
+                && lastDate == other.lastDate
+                && Double.compare(lastRate, other.lastRate) == 0
+                && Double.compare(relativeRate, other.relativeRate) == 0
+                && Double.compare(baseRate, other.baseRate) == 0
+                && relativeTo == other.relativeTo
+                && Double.compare(relativeBaseRate, other.relativeBaseRate) == 0;
+        }
+    }
+
+    private boolean isDisplayed(CurrencyType curr) {
+        return curr != null
+            && curr.getCurrencyType() == CurrencyType.Type.SECURITY
+            && displayedSecurities.contains(curr.getName());
+    }
+}
@@ -0,0 +1,266 @@
+// RefreshMetrics.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Counts of what triggers StockGlance refreshes and how long each phase of a refresh takes, so a slow home page
+// can be diagnosed on a user's machine without attaching a profiler. Main.invoke("metrics") prints a summary.
+// Phases are also emitted as JFR events (see RefreshEvents) when the runtime includes JFR. Safe to use from
+// any thread.
+
+class RefreshMetrics {
+    // What asked for a refresh.
+    enum Trigger {
+        OPEN("view opened"),
+        HOME_PAGE("home page"),
+        ACTIVATED("view activated"),
+        CURRENCY_LISTENER("currency listener"),
+        ACCOUNT_LISTENER("account listener"),
+        TRANSACTION_LISTENER("transaction listener"),
+        INVOKE("Main.invoke"),
+        PREFERENCE("preference change");
+
+        final String label;
+
+        Trigger(String label) {
+            this.label = label;
+        }
+    }
+
+    // Parts of a refresh that are timed.
+    enum Phase {
+        QUEUED("queued"),                       // From first trigger until RefreshScheduler runs the refresh
+        COMPUTE("compute"),                     // Computing the snapshot, on the compute thread
+        APPLY("apply"),                         // Merging the snapshot into the table model, on the Swing thread
+        COLUMN_WIDTHS("column widths"),         // fixColumnAppearance
+        TOTAL("total");                         // From the start of the refresh until the table shows its result
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    // Moneydance's bundled runtime may leave out the jdk.jfr module, in which case RefreshEvents cannot be loaded.
+    private static final boolean JFR_AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private final AtomicLongArray triggers = new AtomicLongArray(Trigger.values().length);
+    private final AtomicLongArray ignored = new AtomicLongArray(Trigger.values().length);    // Irrelevant events
+    private final AtomicLong refreshes = new AtomicLong();             // Refreshes actually started
+    private final AtomicLong published = new AtomicLong();             // Refreshes whose result was displayed
+    private final AtomicLong firstPendingTrigger = new AtomicLong();   // nanoTime of oldest queued trigger, or 0
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+
+    RefreshMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    // A refresh was requested, by count events of a kind.
+    void triggered(Trigger trigger, int count) {
+        triggers.addAndGet(trigger.ordinal(), count);
+        firstPendingTrigger.compareAndSet(0, Math.max(1, System.nanoTime()));
+        if (JFR_AVAILABLE) {
+            RefreshEvents.trigger(trigger);
+        }
+    }
+
+    void triggered(Trigger trigger) {
+        triggered(trigger, 1);
+    }
+
+    // Events were found not to affect the display, so did not trigger a refresh.
+    void ignored(Trigger trigger, int count) {
+        ignored.addAndGet(trigger.ordinal(), count);
+    }
+
+    void ignored(Trigger trigger) {
+        ignored(trigger, 1);
+    }
+
+    // A refresh started, covering every trigger since the last one.
+    void refreshStarted() {
+        refreshes.incrementAndGet();
+        long queuedSince = firstPendingTrigger.getAndSet(0);
+        if (queuedSince != 0) {
+            histograms[Phase.QUEUED.ordinal()].record(System.nanoTime() - queuedSince);
+        }
+    }
+
+    // A refresh's result was displayed.
+    void refreshPublished() {
+        published.incrementAndGet();
+    }
+
+    // Start timing a phase. The returned timer may be stopped on a different thread.
+    Timer start(Phase phase) {
+        return new Timer(phase);
+    }
+
+    long getTriggerCount(Trigger trigger) {
+        return triggers.get(trigger.ordinal());
+    }
+
+    long getIgnoredCount(Trigger trigger) {
+        return ignored.get(trigger.ordinal());
+    }
+
+    long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    long getPublishedCount() {
+        return published.get();
+    }
+
+    Histogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    // Human-readable report of all counters and histograms.
+    String summary() {
+        long totalTriggers = 0;
+        long totalIgnored = 0;
+        StringBuilder bySource = new StringBuilder();
+        StringBuilder ignoredBySource = new StringBuilder();
+        for (Trigger trigger : Trigger.values()) {
+            long count = getTriggerCount(trigger);
+            totalTriggers += count;
+            bySource.append(bySource.length() == 0 ? "" : ", ").append(trigger.label).append(' ').append(count);
+            long ignoredCount = getIgnoredCount(trigger);
+            if (ignoredCount != 0) {
+                totalIgnored += ignoredCount;
+                ignoredBySource.append(ignoredBySource.length() == 0 ? "" : ", ")
+                               .append(trigger.label).append(' ').append(ignoredCount);
+            }
+        }
+        long started = getRefreshCount();
+
+        StringBuilder out = new StringBuilder("StockGlance refresh metrics\n");
+        out.append(String.format("  Triggers: %d (%s)%n", totalTriggers, bySource));
+        out.append(String.format("  Ignored events: %d (%s)%n", totalIgnored, ignoredBySource));
+        out.append(String.format("  Refreshes: %d started (%d triggers collapsed), %d displayed, %d superseded%n",
+                                 started, Math.max(0, totalTriggers - started), getPublishedCount(),
+                                 Math.max(0, started - getPublishedCount())));
+        out.append(String.format("  %-14s %8s %10s %10s %10s %10s%n", "Phase", "Count", "Mean ms", "p50 ms", "p99 ms", "Max ms"));
+        for (Phase phase : Phase.values()) {
+            Histogram h = getHistogram(phase);
+            out.append(String.format("  %-14s %8d %10.3f %10.3f %10.3f %10.3f%n", phase.label, h.getCount(),
+                                     millis(h.getMeanNanos()), millis(h.getPercentileNanos(0.5)),
+                                     millis(h.getPercentileNanos(0.99)), millis(h.getMaxNanos())));
+        }
+        return out.toString();
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    // Timing of one phase of one refresh.
+    class Timer {
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private final Object event;             // JFR event, if available
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            this.event = JFR_AVAILABLE ? RefreshEvents.beginPhase() : null;
+        }
+
+        // End the phase, which involved some number of table rows.
+        void stop(int rows) {
+            histograms[phase.ordinal()].record(System.nanoTime() - start);
+            if (event != null) {
+                RefreshEvents.endPhase(event, phase, rows);
+            }
+        }
+    }
+
+    // Distribution of durations, in buckets whose bounds are powers of two microseconds. Bucket 0 holds durations
+    // under 2 us, and bucket i those in [2^i, 2^(i+1)) us. Percentiles are reported as the upper bound of the
+    // bucket they fall in, so they are within a factor of two.
+    static class Histogram {
+        static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            long micros = nanos / 1000;
+            int bucket = (micros < 2) ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getMeanNanos() {
+            long n = count.get();
+            return (n == 0) ? 0.0 : (double) totalNanos.get() / n;
+        }
+
+        long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        // Upper bound of the bucket containing the fraction-th duration, capped at the largest one seen.
+        long getPercentileNanos(double fraction) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(TimeUnit.MICROSECONDS.toNanos(2L << i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+    }
+}
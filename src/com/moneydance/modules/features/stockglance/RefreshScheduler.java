@@ -0,0 +1,246 @@
+// RefreshScheduler.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Decides when a requested refresh actually runs, merging the requests in between into one. A quote download
+// updates securities one at a time, and refreshing after each would recompute the table hundreds of times.
+// A refresh runs when either:
+//   - no request has arrived for a quiet period, which adapts to the gap between requests, so a steady stream
+//     of updates is treated as one burst rather than each being followed by a refresh; or
+//   - the oldest merged request has waited for the staleness bound, so prices appear promptly even while a burst
+//     goes on. Each refresh forced this way doubles the bound for the next, up to a limit, and a quiet period
+//     resets it, so a long burst causes a few refreshes rather than one every bound.
+// In either case a refresh never starts sooner than a minimum interval after the previous one. A request is
+// therefore shown within max(maxDelay, minInterval) of an idle scheduler, and within the backed-off bound
+// during a burst.
+
+class RefreshScheduler {
+    // Tunable timings, in milliseconds.
+    static class Policy {
+        final long minQuiet;                // Quiet period after an isolated request
+        final long maxQuiet;                // Longest quiet period; a longer gap between requests ends a burst
+        final long maxDelay;                // Staleness bound for the first refresh of a burst
+        final long maxDelayLimit;           // Limit on the staleness bound as it backs off
+        final long minInterval;             // Minimum time between refreshes
+
+        Policy(long minQuiet, long maxQuiet, long maxDelay, long maxDelayLimit, long minInterval) {
+            this.minQuiet = minQuiet;
+            this.maxQuiet = Math.max(minQuiet, maxQuiet);
+            this.maxDelay = maxDelay;
+            this.maxDelayLimit = Math.max(maxDelay, maxDelayLimit);
+            this.minInterval = minInterval;
+        }
+    }
+
+    static final Policy DEFAULT_POLICY = new Policy(100, 1000, 2000, 16000, 500);
+
+    private final Runnable action;
+    private final Executor runner;                  // Where action runs
+    private final ScheduledThreadPoolExecutor timer;
+    private final Stats stats = new Stats();
+    private volatile Policy policy;
+
+    // Requests merged into the next refresh. Guarded by this.
+    private int pendingRequests = 0;
+    private long firstRequest;                      // Time of oldest pending request
+    private long lastRequest = Long.MIN_VALUE / 2;  // Time of newest request, pending or not
+    private long lastRun = Long.MIN_VALUE / 2;      // Time the previous refresh started
+    private double meanGap = 0.0;                   // Moving average of the gap between requests in a burst
+    private long staleness;                         // Current staleness bound
+    private long wakeAt = Long.MAX_VALUE;           // Time the timer will next check, if one is pending
+
+    RefreshScheduler(Runnable action, Executor runner, Policy policy) {
+        this.action = action;
+        this.runner = runner;
+        this.policy = policy;
+        this.staleness = policy.maxDelay;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "StockGlance refresh scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setKeepAliveTime(10, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);                 // Don't hold a thread while idle
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    Stats getStats() {
+        return stats;
+    }
+
+    // Ask for a refresh. Safe to call from any thread.
+    void request() {
+        long now = now();
+        long due;
+        synchronized (this) {
+            due = recordRequest(now);
+            if (due >= wakeAt) {
+                return;                     // Timer already set to check no later than this
+            }
+            wakeAt = due;
+        }
+        timer.schedule(this::wake, Math.max(0, due - now), TimeUnit.MILLISECONDS);
+    }
+
+    // Forget any pending requests, e.g., when the view is reset.
+    synchronized void cancel() {
+        pendingRequests = 0;
+    }
+
+    private void wake() {
+        long now = now();
+        int merged;
+        long due = 0;
+        synchronized (this) {
+            wakeAt = Long.MAX_VALUE;
+            merged = takeIfDue(now);
+            if (merged == 0 && pendingRequests > 0) {
+                due = dueTime();                    // Requests since the timer was set pushed the time back
+                wakeAt = due;
+            }
+        }
+        if (merged > 0) {
+            runner.execute(action);
+        } else if (due != 0) {
+            timer.schedule(this::wake, Math.max(0, due - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    // Note a request at a time (ms), and return the time at which the pending requests are due.
+    synchronized long recordRequest(long now) {
+        long gap = now - lastRequest;
+        if (gap >= policy.maxQuiet) {
+            meanGap = 0.0;                          // A new burst
+            staleness = policy.maxDelay;
+        } else {
+            meanGap = (meanGap == 0.0) ? gap : 0.7 * meanGap + 0.3 * gap;
+        }
+        if (pendingRequests == 0) {
+            firstRequest = now;
+        }
+        pendingRequests++;
+        lastRequest = now;
+        return dueTime();
+    }
+
+    // If the pending requests are due at a time, take them and return how many there were; otherwise, 0.
+    synchronized int takeIfDue(long now) {
+        if (pendingRequests == 0 || now < dueTime()) {
+            return 0;
+        }
+        if (now - lastRequest >= quietPeriod()) {
+            staleness = policy.maxDelay;            // Burst ended
+        } else {
+            staleness = Math.min(2 * staleness, policy.maxDelayLimit);
+        }
+        int merged = pendingRequests;
+        pendingRequests = 0;
+        lastRun = now;
+        stats.record(merged);
+        return merged;
+    }
+
+    // Time at which the pending requests should be refreshed.
+    synchronized long dueTime() {
+        long settled = Math.min(lastRequest + quietPeriod(), firstRequest + staleness);
+        return Math.max(settled, lastRun + policy.minInterval);
+    }
+
+    // Twice the typical gap between requests, so that a refresh waits out a burst but not a lull.
+    private long quietPeriod() {
+        return Math.max(policy.minQuiet, Math.min(policy.maxQuiet, (long) (2 * meanGap)));
+    }
+
+    // How many requests each refresh merged. Bucket i counts refreshes that merged [2^i, 2^(i+1)) requests.
+    static class Stats {
+        static final int BUCKETS = 16;
+
+        private final AtomicLong refreshes = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong maxMerged = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(int merged) {
+            refreshes.incrementAndGet();
+            requests.addAndGet(merged);
+            maxMerged.accumulateAndGet(merged, Math::max);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(merged)));
+        }
+
+        long getRefreshCount() {
+            return refreshes.get();
+        }
+
+        long getRequestCount() {
+            return requests.get();
+        }
+
+        long getMaxMerged() {
+            return maxMerged.get();
+        }
+
+        long getBucket(int i) {
+            return buckets.get(i);
+        }
+
+        String summary() {
+            long n = getRefreshCount();
+            StringBuilder out = new StringBuilder(String.format(
+                "  Scheduler: %d refreshes for %d requests (mean %.1f, max %d merged per refresh)%n",
+                n, getRequestCount(), (n == 0) ? 0.0 : (double) getRequestCount() / n, getMaxMerged()));
+            out.append("  Merged per refresh:");
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = getBucket(i);
+                if (count != 0) {
+                    out.append(String.format(" %d-%d: %d", 1 << i, (2 << i) - 1, count));
+                }
+            }
+            return out.append(String.format("%n")).toString();
+        }
+    }
+}
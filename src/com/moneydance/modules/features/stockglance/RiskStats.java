@@ -0,0 +1,187 @@
+// RiskStats.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.Arrays;
+
+
+// Risk measures of one price history: annualized volatility of the returns between snapshots over the last year,
+// the largest drawdown from a peak over the whole history, and the highest and lowest prices of the last year.
+// Computed in one pass over the history's arrays, and then advanced as snapshots are appended (each is taken in
+// once) and as the year's window moves forward (each leaves once): the window's returns are running sums, and
+// its high and low are the heads of monotonic queues of entry indexes. Nothing is allocated after the queues have
+// grown to the history's size. Owned by a PriceHistory, which resets it when its entries change other than by
+// being appended.
+
+class RiskStats {
+    static final int WINDOW_DAYS = 365;             // The year of the volatility, high and low
+
+    private int taken = 0;                          // Entries [0, taken) of the history are taken in
+    private int windowStart = Integer.MIN_VALUE;    // Earliest date (yyyymmdd) in the window
+    private double peak = Double.NaN;
+    private double maxDrawdown = 0.0;               // Largest fall from a peak, as a negative fraction
+
+    // Returns in the window are those from entry i-1 to entry i, for i in [firstReturn, taken)
+    private int firstReturn = 1;
+    private int returnCount = 0;
+    private double returnSum = 0.0;
+    private double returnSquares = 0.0;
+
+    // Indexes of the entries in the window that may yet be its high (prices descending) or low (ascending)
+    private int[] highs = new int[0];
+    private int[] lows = new int[0];
+    private int highHead = 0, highTail = 0;
+    private int lowHead = 0, lowTail = 0;
+
+    // Start again from the first entry.
+    void reset() {
+        taken = 0;
+        windowStart = Integer.MIN_VALUE;
+        peak = Double.NaN;
+        maxDrawdown = 0.0;
+        firstReturn = 1;
+        returnCount = 0;
+        returnSum = 0.0;
+        returnSquares = 0.0;
+        highHead = highTail = lowHead = lowTail = 0;
+    }
+
+    // Take in entries [taken, size) of a history, and move the window to start at windowStart. The window only
+    // moves forward; an earlier start than before starts again from the first entry.
+    void advance(int[] dates, double[] prices, int size, int windowStart) {
+        if (windowStart < this.windowStart || size < taken) {
+            reset();
+        }
+        this.windowStart = windowStart;
+        if (highs.length < size) {
+            int capacity = Math.max(size, 2 * highs.length);
+            highs = Arrays.copyOf(highs, capacity);
+            lows = Arrays.copyOf(lows, capacity);
+        }
+
+        // Drop what has left the window, then take in the new entries. Entries before the window count only
+        // toward the drawdown, so a first pass does little for all but the last year.
+        while (firstReturn < taken && dates[firstReturn - 1] < windowStart) {
+            if (usable(prices[firstReturn]) && usable(prices[firstReturn - 1])) {
+                double r = Math.log(prices[firstReturn] / prices[firstReturn - 1]);
+                returnSum -= r;
+                returnSquares -= r * r;
+                returnCount--;
+            }
+            firstReturn++;
+        }
+        if (returnCount == 0) {
+            returnSum = 0.0;                                    // Don't carry rounding error forward
+            returnSquares = 0.0;
+        }
+        while (highHead < highTail && dates[highs[highHead]] < windowStart) {
+            highHead++;
+        }
+        while (lowHead < lowTail && dates[lows[lowHead]] < windowStart) {
+            lowHead++;
+        }
+
+        for (int i = taken; i < size; i++) {
+            double price = prices[i];
+            if (!usable(price)) {
+                continue;
+            }
+            if (!(price <= peak)) {
+                peak = price;                                   // Including the first
+            } else {
+                maxDrawdown = Math.min(maxDrawdown, price / peak - 1.0);
+            }
+            if (i == 0 || dates[i - 1] < windowStart) {
+                firstReturn = i + 1;                            // Every return so far starts before the window
+            } else if (usable(prices[i - 1])) {
+                double r = Math.log(price / prices[i - 1]);
+                returnSum += r;
+                returnSquares += r * r;
+                returnCount++;
+            }
+            if (dates[i] < windowStart) {
+                continue;
+            }
+            while (highTail > highHead && prices[highs[highTail - 1]] <= price) {
+                highTail--;
+            }
+            highs[highTail++] = i;
+            while (lowTail > lowHead && prices[lows[lowTail - 1]] >= price) {
+                lowTail--;
+            }
+            lows[lowTail++] = i;
+        }
+        taken = size;
+    }
+
+    // Standard deviation of the window's log returns, scaled to a year by how many returns it has per year, or
+    // NaN if it has fewer than two.
+    double getVolatility(int[] dates) {
+        if (returnCount < 2) {
+            return Double.NaN;
+        }
+        double variance = Math.max(0.0, (returnSquares - returnSum * returnSum / returnCount) / (returnCount - 1));
+        int days = epochDay(dates[taken - 1]) - epochDay(dates[firstReturn - 1]);
+        return (days <= 0) ? Double.NaN : Math.sqrt(variance * returnCount * 365.25 / days);
+    }
+
+    // Largest fall from a peak to a later price, as a fraction of the peak (0 or negative).
+    double getMaxDrawdown() {
+        return (taken == 0 || Double.isNaN(peak)) ? Double.NaN : maxDrawdown;
+    }
+
+    double getHigh(double[] prices) {
+        return (highHead < highTail) ? prices[highs[highHead]] : Double.NaN;
+    }
+
+    double getLow(double[] prices) {
+        return (lowHead < lowTail) ? prices[lows[lowHead]] : Double.NaN;
+    }
+
+    static boolean usable(double price) {
+        return price > 0.0 && price < Double.POSITIVE_INFINITY;
+    }
+
+    // Days from 1970-01-01 to a date (yyyymmdd), without allocating a LocalDate.
+    static int epochDay(int date) {
+        int year = date / 10000;
+        int month = (date / 100) % 100;
+        int day = date % 100;
+        year -= (month <= 2) ? 1 : 0;                           // Years start in March, so leap days come last
+        int era = Math.floorDiv(year, 400);
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
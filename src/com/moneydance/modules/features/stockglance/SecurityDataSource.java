@@ -0,0 +1,96 @@
+// SecurityDataSource.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.List;
+
+
+// The data StockGlance computes from: the securities in a book, their price snapshots and splits, and the number
+// of shares held. S is the source's handle for a security. StockGlanceEngine uses only this interface, so it can
+// run against a Moneydance AccountBook (AccountBookDataSource) or entirely in memory (InMemoryDataSource).
+// Methods are called only from the thread that computes, even when rows are computed in parallel.
+
+interface SecurityDataSource<S> {
+    // Every security that may be displayed, i.e., not hidden in the UI.
+    List<S> getSecurities();
+
+    String getName(S security);
+
+    // Identifies the security from one session to the next, e.g., in SnapshotCache.
+    String getKey(S security);
+
+    String getTickerSymbol(S security);
+
+    // Rate that converts a value in the security's relative currency to the base currency (value / rate).
+    double getBaseRate(S security);
+
+    // Number of shares held, summed over all accounts.
+    double getBalance(S security);
+
+    // What the shares held cost, in the security's relative currency, or NaN if that is not known.
+    double getCostBasis(S security);
+
+    // Dividends and other distributions per share paid on dates after after and through through (yyyymmdd), in
+    // the security's relative currency and adjusted for splits as prices are, or NaN if that is not known.
+    double getDistributions(S security, int after, int through);
+
+    // Number of price snapshots the security has.
+    int getSnapshotCount(S security);
+
+    // Number of splits the security has. Adding or removing a split changes the split-adjusted price of every
+    // earlier snapshot.
+    int getSplitCount(S security);
+
+    // Store the date (yyyymmdd) and split-adjusted price of snapshots from .. to-1 into the corresponding elements
+    // of dates and prices. Snapshots are normally in date order, and new ones are appended at the end.
+    void loadSnapshots(S security, int from, int to, int[] dates, double[] prices);
+
+    // Checksum of the dates and rates, as stored rather than adjusted for splits, of snapshots from .. to-1: the sum
+    // of checksum(i, date, rate) over them, so the checksums of adjacent ranges add up to the checksum of both.
+    long getSnapshotChecksum(S security, int from, int to);
+
+    // Checksum of the dates and ratios of the security's splits: the sum of checksum(i, date, ratio) over them.
+    long getSplitChecksum(S security);
+
+    // Term of a checksum for entry index of a list, with its date and value. Every bit of the inputs affects the
+    // whole term, so editing any one entry of a list changes its checksum.
+    static long checksum(int index, int date, double value) {
+        long h = ((long) index << 32) | (date & 0xFFFFFFFFL);
+        h ^= Long.rotateLeft(Double.doubleToLongBits(value) * 0x9E3779B97F4A7C15L, 31);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
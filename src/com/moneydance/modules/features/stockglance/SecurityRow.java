@@ -0,0 +1,178 @@
+// SecurityRow.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+
+// Values displayed in one row of the table, computed from one security's prices and balance. Immutable, so rows
+// can be shared between snapshots and handed from the compute thread to the Swing thread.
+
+class SecurityRow<S> {
+    static final Comparator<SecurityRow<?>> ORDER = (r1, r2) -> compare(r1.sortKey, r1.name, r2.sortKey, r2.name);
+
+    // Indexes into values of the fixed columns, followed by a return for each horizon (see Column.forHorizons)
+    static final int PRICE = 0;
+    static final int CHANGE = 1;
+    static final int BALANCE = 2;
+    static final int FIRST_RETURN = 3;
+
+    private static final double[] NONE = new double[0];
+
+    final S security;
+    final String symbol;
+    final String name;
+    final String sortKey;           // Rows are ordered by lower-case symbol
+    final int historyVersion;       // Version of the security's price history used
+    final double shares;            // Balance, in shares, used
+    final double costBasis;         // Cost basis used, NaN if none was
+    final double[] distributions;   // Distributions since each price slot's date used, empty if none were
+    final double[] benchmarkReturns;    // Benchmark's return since each price slot's date used, empty if none were
+    final double baseRate;          // Security's rate relative to base currency used
+    final double[] values;          // Value of each column, NaN if not computed
+    final long computedColumns;     // Mask of the columns whose values were computed
+    final double baseBalance;       // Balance in base currency, for footer total
+    private final boolean hasPrices;
+
+    // data.prices[slot] is the price at each of Column's price slots, NaN if not known or not looked up. Only
+    // the columns in computedColumns are computed.
+    SecurityRow(S security, String symbol, String name, double baseRate, int historyVersion, Column.Data data,
+                List<Column> columns, long computedColumns) {
+        this.security = security;
+        this.symbol = symbol;
+        this.name = name;
+        this.sortKey = (symbol == null) ? "" : symbol.toLowerCase();
+        this.historyVersion = historyVersion;
+        this.shares = data.shares;
+        this.costBasis = ((data.sources & Column.COST_BASIS) != 0) ? data.costBasis : Double.NaN;
+        this.distributions = ((data.sources & Column.DISTRIBUTIONS) != 0) ? data.distributions.clone() : NONE;
+        this.benchmarkReturns = ((data.sources & Column.BENCHMARK) != 0) ? data.benchmarkReturns.clone() : NONE;
+        this.baseRate = baseRate;
+        this.computedColumns = computedColumns;
+
+        this.values = new double[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((computedColumns & (1L << i)) != 0) ? columns.get(i).function.compute(data) : Double.NaN;
+        }
+        this.baseBalance = shares * 1.0 / baseRate;
+
+        double[] prices = data.prices;
+        boolean earlierPrice = false;
+        for (int slot = Column.FIRST_HORIZON; slot < prices.length; slot++) {
+            earlierPrice |= !Double.isNaN(prices[slot]);
+        }
+        this.hasPrices = !Double.isNaN(prices[Column.TODAY]) && earlierPrice;
+    }
+
+    // Row for a security whose values are not yet known, shown until they are computed. It has no values or
+    // footer balance, and is never current.
+    private SecurityRow(S security, String symbol, String name, int columnCount) {
+        this.security = security;
+        this.symbol = symbol;
+        this.name = name;
+        this.sortKey = (symbol == null) ? "" : symbol.toLowerCase();
+        this.historyVersion = -1;
+        this.shares = Double.NaN;
+        this.costBasis = Double.NaN;
+        this.distributions = NONE;
+        this.benchmarkReturns = NONE;
+        this.baseRate = Double.NaN;
+        this.computedColumns = 0;
+        this.values = new double[columnCount];
+        Arrays.fill(values, Double.NaN);
+        this.baseBalance = Double.NaN;
+        this.hasPrices = true;
+    }
+
+    static <S> SecurityRow<S> placeholder(S security, String symbol, String name, int columnCount) {
+        return new SecurityRow<>(security, symbol, name, columnCount);
+    }
+
+    // Row restored by SnapshotCache from an earlier session, which saved only the values of columns computed from
+    // prices. It has none from the user's holdings and no footer balance, and is never current.
+    SecurityRow(S security, String symbol, String name, double baseRate, double[] values, long computedColumns,
+                boolean hasPrices) {
+        this.security = security;
+        this.symbol = symbol;
+        this.name = name;
+        this.sortKey = (symbol == null) ? "" : symbol.toLowerCase();
+        this.historyVersion = -1;
+        this.shares = Double.NaN;
+        this.costBasis = Double.NaN;
+        this.distributions = NONE;
+        this.benchmarkReturns = NONE;
+        this.baseRate = baseRate;
+        this.values = values;
+        this.computedColumns = computedColumns;
+        this.baseBalance = Double.NaN;
+        this.hasPrices = hasPrices;
+    }
+
+    // Today's price and the price at the start of at least one horizon are known. Needs those prices to have
+    // been looked up, whether or not the columns that use them were computed.
+    boolean hasPrices() {
+        return hasPrices;
+    }
+
+    // Nothing this row was computed from has changed, and it has a value for each of the needed columns. symbol,
+    // name and baseRate are the security's now, and data has the shares and whichever other sources the needed
+    // columns use.
+    boolean isCurrent(String symbol, String name, double baseRate, PriceHistory history, Column.Data data,
+                      long neededColumns) {
+        return historyVersion == history.getVersion()
+            && (computedColumns & neededColumns) == neededColumns
+            && Double.compare(shares, data.shares) == 0
+            && ((data.sources & Column.COST_BASIS) == 0 || Double.compare(costBasis, data.costBasis) == 0)
+            && ((data.sources & Column.DISTRIBUTIONS) == 0 || Arrays.equals(distributions, data.distributions))
+            && ((data.sources & Column.BENCHMARK) == 0 || Arrays.equals(benchmarkReturns, data.benchmarkReturns))
+            && Double.compare(this.baseRate, baseRate) == 0
+            && Objects.equals(this.symbol, symbol)
+            && Objects.equals(this.name, name);
+    }
+
+    // Order of rows: by lower-case symbol, then by name.
+    static int compare(String sortKey1, String name1, String sortKey2, String name2) {
+        int result = sortKey1.compareTo(sortKey2);
+        if (result != 0 || name1 == name2) {
+            return result;
+        } else if (name1 == null) {
+            return -1;
+        } else if (name2 == null) {
+            return 1;
+        }
+        return name1.compareTo(name2);
+    }
+}
@@ -0,0 +1,298 @@
+// SnapshotCache.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+// Binary file, kept in the data file's folder, holding the engine's price histories and last snapshot, so a new
+// session starts from the previous one's work rather than reading every security's snapshots again. Securities
+// are identified by SecurityDataSource.getKey. Each restored history is checked against the checksums of the
+// security's snapshots and splits (PriceHistory.matches) and dropped, with its row, if any it was built from was
+// edited since, e.g., a corrected quote or a data file restored from elsewhere. A history that matches is brought
+// up to date the first time it is used, which adjusts only the snapshots added since it was saved. A cache that
+// cannot be read is ignored. Used only by the compute thread.
+//
+// Moneydance encrypts the rest of the folder, but not this file, so it holds nothing from the user's
+// transactions: no names, shares, cost bases, distributions or balances. Only the values of the columns computed
+// from prices are saved, and the displayed securities are those saved with a row. A restored row is shown until
+// the first computation, which recomputes every row from the book.
+//
+// Layout (big-endian, as written by DataOutputStream; strings are a byte count, or -1 for null, and UTF-8):
+//   magic, format version
+//   inputs: allow missing prices, timely snapshot interval, horizons, benchmark's key, hidden columns
+//   today
+//   per security: key, price history with its checksums, and, if it has one, its row's values of price columns
+
+class SnapshotCache<S> {
+    static final String FILE_NAME = "stockglance.cache";
+    private static final int MAGIC = 0x53474331;    // "SGC1"
+    private static final int FORMAT = 6;
+    static final long SAVE_INTERVAL = TimeUnit.MINUTES.toNanos(10);   // Between saves while the view is open
+
+    private final File file;
+    private boolean loaded = false;                 // Load was called
+    private PortfolioSnapshot<S> saved;             // Snapshot in the file, as far as we know
+    private long lastSave = System.nanoTime();
+
+    SnapshotCache(File file) {
+        this.file = file;
+    }
+
+    // Restore the engine from the file, the first time this is called. Returns true if it restored anything.
+    boolean load(StockGlanceEngine<S> engine) {
+        if (loaded) {
+            return false;
+        }
+        loaded = true;
+        if (!file.isFile()) {
+            return false;
+        }
+        SecurityDataSource<S> source = engine.getSource();
+        Map<String, S> securities = new HashMap<>();
+        for (S security : source.getSecurities()) {
+            securities.put(source.getKey(security), security);
+        }
+
+        try {
+            // Read into the heap rather than mapped: a mapping stays open until it is garbage collected, and on
+            // Windows that stops save from replacing the file.
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT) {
+                return false;
+            }
+            boolean allowMissingPrices = in.get() != 0;
+            int timelySnapshotInterval = in.getInt();
+            List<Horizon> horizons = Horizon.parseList(readString(in));
+            S benchmark = securities.get(readString(in));
+            Set<String> hiddenColumns = readStrings(in);
+            int today = in.getInt();
+            int count = in.getInt();
+            Map<S, PriceHistory> histories = new HashMap<>();
+            Map<S, SecurityRow<S>> computed = new HashMap<>();
+            Set<String> displayedSecurities = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                S security = securities.get(readString(in));
+                PriceHistory history = PriceHistory.read(in);
+                SecurityRow<S> row = (in.get() != 0) ? readRow(in, source, security) : null;
+                if (security == null) {
+                    continue;                               // No longer in the book
+                }
+                boolean current = history.matches(source, security);
+                if (current) {
+                    histories.put(security, history);
+                }
+                if (row != null) {
+                    if (current) {
+                        computed.put(security, row);
+                    }
+                    displayedSecurities.add(source.getName(security));
+                }
+            }
+            StockGlanceEngine.Inputs inputs = new StockGlanceEngine.Inputs(
+                displayedSecurities, allowMissingPrices, timelySnapshotInterval, horizons,
+                (benchmark == null) ? null : source.getName(benchmark), hiddenColumns);
+            List<SecurityRow<S>> rows = new ArrayList<>();
+            for (SecurityRow<S> row : computed.values()) {
+                if (inputs.allowMissingPrices || row.hasPrices()) {
+                    rows.add(row);
+                }
+            }
+            rows.sort(SecurityRow.ORDER);
+            PortfolioSnapshot<S> snapshot = new PortfolioSnapshot<>(inputs, today, computed, rows);
+            engine.restore(histories, snapshot);
+            saved = snapshot;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("StockGlance: ignoring unreadable cache " + file + ": " + e);
+            return false;
+        }
+    }
+
+    // Save the engine's state if it has changed and SAVE_INTERVAL has passed since the last save.
+    void saveIfDue(StockGlanceEngine<S> engine) {
+        if (System.nanoTime() - lastSave >= SAVE_INTERVAL) {
+            save(engine);
+        }
+    }
+
+    // Save the engine's state if it has changed since it was last saved or loaded. The file is written under
+    // another name and then moved into place, so a reader never sees it half written.
+    void save(StockGlanceEngine<S> engine) {
+        PortfolioSnapshot<S> snapshot = engine.getLastSnapshot();
+        if (snapshot == null || snapshot == saved) {
+            return;
+        }
+        lastSave = System.nanoTime();
+        SecurityDataSource<S> source = engine.getSource();
+        List<S> securities = new ArrayList<>();
+        S benchmark = null;
+        for (S security : source.getSecurities()) {
+            if (engine.getPriceHistory(security) != null) {
+                securities.add(security);
+            }
+            if (benchmark == null && Objects.equals(source.getName(security), snapshot.inputs.benchmark)) {
+                benchmark = security;
+            }
+        }
+        long priceColumns = Column.priceColumns(snapshot.inputs.columns);
+
+        Path temp = new File(file.getPath() + ".tmp").toPath();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeBoolean(snapshot.inputs.allowMissingPrices);
+                out.writeInt(snapshot.inputs.timelySnapshotInterval);
+                writeString(out, Horizon.formatList(snapshot.inputs.horizons));
+                writeString(out, (benchmark == null) ? null : source.getKey(benchmark));
+                writeStrings(out, snapshot.inputs.hiddenColumns);
+                out.writeInt(snapshot.today);
+                out.writeInt(securities.size());
+                for (S security : securities) {
+                    writeString(out, source.getKey(security));
+                    engine.getPriceHistory(security).write(out);
+                    SecurityRow<S> row = snapshot.computed.get(security);
+                    out.writeByte(row == null ? 0 : 1);
+                    if (row != null) {
+                        writeRow(out, row, priceColumns);
+                    }
+                }
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            saved = snapshot;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    // The row's values of price columns, and whether it has prices.
+    private static void writeRow(DataOutputStream out, SecurityRow<?> row, long priceColumns) throws IOException {
+        double[] values = row.values.clone();
+        for (int i = 0; i < values.length; i++) {
+            if ((priceColumns & (1L << i)) == 0) {
+                values[i] = Double.NaN;
+            }
+        }
+        out.writeLong(row.computedColumns & priceColumns);
+        out.writeBoolean(row.hasPrices());
+        writeDoubles(out, values);
+    }
+
+    private static <S> SecurityRow<S> readRow(ByteBuffer in, SecurityDataSource<S> source, S security) {
+        long computedColumns = in.getLong();
+        boolean hasPrices = in.get() != 0;
+        double[] values = readDoubles(in);
+        if (security == null) {
+            return null;
+        }
+        return new SecurityRow<>(security, source.getTickerSymbol(security), source.getName(security),
+                                 source.getBaseRate(security), values, computedColumns, hasPrices);
+    }
+
+    // An array of at most one value per column.
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > Column.MAX_COLUMNS) {
+            throw new IllegalArgumentException("Bad column count " + count);
+        }
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + count * Double.BYTES);
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static Set<String> readStrings(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / Integer.BYTES) {
+            throw new IllegalArgumentException("Bad string count " + count);
+        }
+        Set<String> strings = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == -1) {
+            return null;
+        } else if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -36,20 +36,33 @@ import com.infinitekind.moneydance.model.*;
 import com.infinitekind.util.DateUtil;
 import com.infinitekind.util.StringUtils;
 import com.moneydance.apps.md.view.HomePageView;
-import com.moneydance.awt.CollapsibleRefresher;
 import com.moneydance.apps.md.view.gui.MoneydanceGUI;
 import com.moneydance.apps.md.view.gui.MoneydanceLAF;
 import com.moneydance.awt.GridC;
 
+import java.io.File;
 import java.text.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import java.awt.*;
 import java.awt.Component;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.HierarchyBoundsAdapter;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
+import javax.swing.event.TableModelEvent;
 import javax.swing.RowSorter;
 import javax.swing.RowSorter.SortKey;
 import javax.swing.table.*;
@@ -68,31 +81,55 @@ class StockGlance implements HomePageView {
     private AccountBook book;
     private SGTable table;
     private SGPanel tablePane;
+    private BalanceLedger balanceLedger;
+    private CostBasisLedger costBasisLedger;
+    private RefreshFilter refreshFilter;            // Ignores account and currency events that do not matter
+
+    // Prices and returns are computed on a background thread. The result is an immutable snapshot, which is
+    // handed to the table on the Swing thread. A newer refresh abandons any computation still in progress.
+    private ExecutorService computeExecutor;
+    private Future<?> pendingCompute;
+    private final AtomicInteger refreshGeneration = new AtomicInteger();
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();  // By something other than currency events
+    private StockGlanceEngine<CurrencyType> engine;                                 // Computes on compute thread only
+    private SnapshotCache<CurrencyType> cache;      // Engine's state from the last session, or null; compute thread
 
     private String displayedSecuritiesList;         // Comma-separated list of security to display
     private boolean allowMissingPrices = false;     // Display even if not all prices are available
     private int timelySnapshotInterval = 7;         // Days to look back to find security price (-1 => infinity)
+    private List<Horizon> horizons = Horizon.DEFAULTS;  // Periods over which returns are displayed
+    private String benchmark = null;                // Security that excess returns are relative to (null => none)
+    private Set<String> hiddenColumns = new HashSet<>();  // Keys of numeric columns not displayed
+    private int maxVisibleRows = 0;                 // Rows shown before the table scrolls (0 => all)
 
     private final CurrencyCallback currencyTableCallback = new CurrencyCallback(this);
     private final AccountCallback allAccountsCallback = new AccountCallback(this);
-    private final CollapsibleRefresher refresher;
+    private final TransactionCallback allTransactionsCallback = new TransactionCallback(this);
+    private final RefreshScheduler scheduler;
+    private final BookListeners bookListeners;      // Registers the callbacks while the view is active
+    private final RefreshMetrics metrics = new RefreshMetrics();
 
-    // Per column metadata
-    private final String[] names = {"Symbol", "Stock", "Price", "Change", "Balance", "Day", "7 Day", "30 Day", "365 Day"};
-    private final Vector<String> columnNames = new Vector<>(Arrays.asList(names));
+    // Per column metadata. The symbol and name are followed by the numeric columns, which are described by columns.
     private static final String TEXT_COL = "Text";
     private static final String CURR0_COL = "Currency0";
     private static final String CURR2_COL = "Currency2";
     private static final String PERCENT_COL = "Percent";
-    private final String[] columnTypes = {TEXT_COL, TEXT_COL, CURR2_COL, CURR2_COL, CURR0_COL, PERCENT_COL, PERCENT_COL, PERCENT_COL, PERCENT_COL};
-    static final int INFINITY = -1;
+    private static final String[] TEXT_NAMES = {"Symbol", "Stock"};
+    private List<Column> columns;
+    private String[] names;
+    private String[] columnTypes;
+    static final int INFINITY = StockGlanceEngine.INFINITY;
+    private static final String NO_BENCHMARK = "None";
 
 
     StockGlance(MoneydanceGUI mdGUI) {
         this.mdGUI = mdGUI;
         this.table = null;
         this.tablePane = null;
-        this.refresher = new CollapsibleRefresher(StockGlance.this::actuallyRefresh);
+        setColumns(horizons);
+        this.scheduler = new RefreshScheduler(StockGlance.this::scheduledRefresh, SwingUtilities::invokeLater,
+                                              RefreshScheduler.DEFAULT_POLICY);
+        this.bookListeners = new BookListeners(this::addListeners, this::removeListeners, this::eventsMissed);
     }
 
 
@@ -119,8 +156,26 @@ class StockGlance implements HomePageView {
             if (tablePane == null) {
                 this.book = book;
                 getPreferences();
+                balanceLedger = new BalanceLedger(book);             // Scanned by the first computation
+                refreshFilter = new RefreshFilter(balanceLedger, book.getCurrencies(), getWatchedSecurities());
+                costBasisLedger = new CostBasisLedger(book);         // Scanned when a cost column is first shown
+                engine = new StockGlanceEngine<>(new AccountBookDataSource(book, balanceLedger, costBasisLedger));
+                File folder = book.getRootFolder();
+                cache = (folder == null) ? null : new SnapshotCache<>(new File(folder, SnapshotCache.FILE_NAME));
+                computeExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "StockGlance refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
                 table = new SGTable(mdGUI, this, book, true);
                 tablePane = new SGPanel(mdGUI, table);
+
+                // The view is returned at once, listing the displayed securities. Their values fill in as the
+                // first snapshot is computed, so opening a book does not wait on its size.
+                int today = DateUtil.convertCalToInt(Calendar.getInstance());
+                table.showSnapshot(engine.placeholder(currentInputs(), today));
+                metrics.triggered(RefreshMetrics.Trigger.OPEN);
+                actuallyRefresh();
             }
             return tablePane;
         }
@@ -132,34 +187,143 @@ class StockGlance implements HomePageView {
     @Override
     public void setActive(boolean active) {
         if (book != null) {
-            book.getCurrencies().removeCurrencyListener(currencyTableCallback); // At most one listener
-            book.removeAccountListener(allAccountsCallback);
-            if (active) {
-                book.getCurrencies().addCurrencyListener(currencyTableCallback);
-                book.addAccountListener(allAccountsCallback);
-            }
+            bookListeners.setActive(active);
+        }
+    }
+
+    private void addListeners() {
+        book.getCurrencies().addCurrencyListener(currencyTableCallback);
+        book.addAccountListener(allAccountsCallback);
+        book.getTransactionSet().addTransactionListener(allTransactionsCallback);
+    }
+
+    private void removeListeners() {
+        book.getCurrencies().removeCurrencyListener(currencyTableCallback);
+        book.removeAccountListener(allAccountsCallback);
+        book.getTransactionSet().removeTransactionListener(allTransactionsCallback);
+    }
+
+    // The ledgers did not see the events while the view was inactive, so they are scanned again by the next
+    // refresh, and the price histories are checked in full for snapshots edited meanwhile.
+    private void eventsMissed() {
+        BalanceLedger balances = balanceLedger;
+        if (balances != null) {
+            balances.invalidate();
+        }
+        CostBasisLedger costs = costBasisLedger;
+        if (costs != null) {
+            costs.invalidate();
         }
+        StockGlanceEngine<CurrencyType> computer = engine;
+        if (computer != null) {
+            computer.verifyHistories();
+        }
+        refresh(RefreshMetrics.Trigger.ACTIVATED);
     }
 
     // Forces a refresh of the information in the view. For example, this is called after the preferences are updated.
     // Like the other home page controls, we actually do this lazily to avoid repeatedly recalculating after stock
-    // price updates.
+    // price updates. RefreshScheduler decides when requests have settled enough to recompute.
     @Override
     public void refresh() {
-        refresher.enqueueRefresh();
+        refresh(RefreshMetrics.Trigger.HOME_PAGE);
+    }
+
+    void refresh(RefreshMetrics.Trigger trigger) {
+        refreshRequested.set(true);
+        metrics.triggered(trigger);
+        scheduler.request();
     }
 
-    // Actually recompute and redisplay table.
+    // Run by the scheduler once the requests have settled. Currency events are only counted as they arrive, so
+    // whether any of them changed a displayed security is checked here, once for the whole burst, and if none
+    // did and nothing else asked for a refresh, there is none. Any of them may have edited a snapshot or split in
+    // place, so the price histories are checked in full at the next computation.
+    private void scheduledRefresh() {
+        boolean requested = refreshRequested.getAndSet(false);
+        RefreshFilter filter = refreshFilter;
+        int currencyEvents = (filter == null) ? 0 : filter.takeCurrencyEvents();
+        if (currencyEvents > 0) {
+            StockGlanceEngine<CurrencyType> computer = engine;
+            if (computer != null) {
+                computer.verifyHistories();
+            }
+            if (filter.currenciesChanged()) {
+                metrics.triggered(RefreshMetrics.Trigger.CURRENCY_LISTENER, currencyEvents);
+                requested = true;
+            } else {
+                metrics.ignored(RefreshMetrics.Trigger.CURRENCY_LISTENER, currencyEvents);
+            }
+        }
+        if (requested) {
+            actuallyRefresh();
+        }
+    }
+
+    // Refresh metrics and scheduler statistics, for Main.invoke("metrics").
+    String getMetricsSummary() {
+        return metrics.summary() + scheduler.getStats().summary();
+    }
+
+    // Actually recompute and redisplay table. The computation runs on the compute thread and its result is
+    // displayed later on the Swing thread, unless a newer refresh has started in the meantime.
     private void actuallyRefresh() {
         synchronized (this) {
-            if (table != null) {
-                table.recomputeModel(book, getDisplayedSecurities(), allowMissingPrices, timelySnapshotInterval);
+            if (table == null) {
+                return;
             }
+            metrics.refreshStarted();
+            RefreshMetrics.Timer total = metrics.start(RefreshMetrics.Phase.TOTAL);
+            StockGlanceEngine.Inputs inputs = currentInputs();
+            int generation = refreshGeneration.incrementAndGet();
+            if (pendingCompute != null) {
+                pendingCompute.cancel(false);
+            }
+            pendingCompute = computeExecutor.submit(() -> {
+                PortfolioSnapshot<CurrencyType> snapshot;
+                try {
+                    snapshot = computeSnapshot(inputs, generation, partial ->
+                        SwingUtilities.invokeLater(() -> publishPartialSnapshot(partial, generation)));
+                } catch (RuntimeException e) {
+                    e.printStackTrace(System.err);
+                    return;
+                }
+                if (snapshot != null) {
+                    SwingUtilities.invokeLater(() -> publishSnapshot(snapshot, generation, total));
+                }
+            });
+        }
+    }
+
+    // Display a partial snapshot, if its computation is still the most recent one.
+    private void publishPartialSnapshot(PortfolioSnapshot<CurrencyType> snapshot, int generation) {
+        synchronized (this) {
+            if (table == null || generation != refreshGeneration.get()
+                || !snapshot.inputs.horizons.equals(horizons)) {
+                return;
+            }
+            table.showSnapshot(snapshot);
+        }
+        if (tablePane != null) {
+            tablePane.revalidate();
+        }
+    }
+
+    // Display a computed snapshot, if it is still the most recent one.
+    private void publishSnapshot(PortfolioSnapshot<CurrencyType> snapshot, int generation, RefreshMetrics.Timer total) {
+        synchronized (this) {
+            if (table == null || generation != refreshGeneration.get()
+                || !snapshot.inputs.horizons.equals(horizons)) {
+                return;                                 // A refresh for the current columns is on its way
+            }
+            table.showSnapshot(snapshot);
         }
         if (tablePane != null) {
             tablePane.setVisible(true);
             tablePane.revalidate();
         }
+        metrics.refreshPublished();
+        total.stop(snapshot.rows.size());
     }
 
     // Called when the view should clean up everything. For example, this is called when a file is closed and the GUI
@@ -167,11 +331,44 @@ class StockGlance implements HomePageView {
     @Override
     public void reset() {
         setActive(false);
-        if (tablePane != null) {
-            tablePane.removeAll();
+        scheduler.cancel();
+        synchronized (this) {
+            refreshGeneration.incrementAndGet();       // Abandon any computation in progress
+            if (computeExecutor != null) {
+                StockGlanceEngine<CurrencyType> engine = this.engine;
+                SnapshotCache<CurrencyType> cache = this.cache;
+                if (cache != null) {
+                    computeExecutor.execute(() -> cache.save(engine));      // Runs after any computation
+                }
+                computeExecutor.shutdown();
+                computeExecutor = null;
+            }
+            pendingCompute = null;
+            if (tablePane != null) {
+                tablePane.removeAll();
+            }
+            table = null;
+            tablePane = null;
+            balanceLedger = null;
+            costBasisLedger = null;
+            refreshFilter = null;
+            engine = null;
+            cache = null;
+        }
+    }
+
+    // Check the incrementally maintained balances and cost bases against a full scan of the book.
+    void verifyBalances() {
+        BalanceLedger ledger = balanceLedger;
+        if (ledger != null && !ledger.verify()) {
+            System.err.println("StockGlance: balances were out of date and have been recomputed");
+            refresh(RefreshMetrics.Trigger.INVOKE);
+        }
+        CostBasisLedger costs = costBasisLedger;
+        if (costs != null && !costs.verify()) {
+            System.err.println("StockGlance: cost bases were out of date and have been recomputed");
+            refresh(RefreshMetrics.Trigger.INVOKE);
         }
-        table = null;
-        tablePane = null;
     }
 
     // Preference of which stocks are displayed in the table.
@@ -180,6 +377,28 @@ class StockGlance implements HomePageView {
         displayedSecuritiesList = rootAccount.getPreference("StockGlance_displayedSecurities", "");
         allowMissingPrices = rootAccount.getPreferenceBoolean("StockGlance_DisplayMissingPrices", false);
         timelySnapshotInterval = rootAccount.getPreferenceInt("StockGlance_TimelyWindow", 7);
+        maxVisibleRows = Math.max(0, rootAccount.getPreferenceInt("StockGlance_MaxRows", 0));
+        horizons = Horizon.parseList(rootAccount.getPreference("StockGlance_Horizons", Horizon.DEFAULT_SPEC));
+        String benchmarkName = rootAccount.getPreference("StockGlance_Benchmark", "");
+        benchmark = benchmarkName.isEmpty() ? null : benchmarkName;
+        setColumns(horizons);
+        // Optional columns are hidden until shown, so they are kept as the set shown
+        hiddenColumns = decodeColumnKeys(rootAccount.getPreference("StockGlance_HiddenColumns", ""));
+        Set<String> shownOptional = decodeColumnKeys(rootAccount.getPreference("StockGlance_ShownColumns", ""));
+        for (Column column : columns) {
+            if (column.optional && !shownOptional.contains(column.key)) {
+                hiddenColumns.add(column.key);
+            }
+        }
+
+        // Refresh timings (ms) have no UI, but can be tuned in the data file's preferences
+        RefreshScheduler.Policy defaults = RefreshScheduler.DEFAULT_POLICY;
+        scheduler.setPolicy(new RefreshScheduler.Policy(
+            rootAccount.getPreferenceInt("StockGlance_RefreshMinQuiet", (int) defaults.minQuiet),
+            rootAccount.getPreferenceInt("StockGlance_RefreshMaxQuiet", (int) defaults.maxQuiet),
+            rootAccount.getPreferenceInt("StockGlance_RefreshMaxDelay", (int) defaults.maxDelay),
+            rootAccount.getPreferenceInt("StockGlance_RefreshMaxDelayLimit", (int) defaults.maxDelayLimit),
+            rootAccount.getPreferenceInt("StockGlance_RefreshMinInterval", (int) defaults.minInterval)));
     }
 
     private void savePreferences() {
@@ -187,6 +406,28 @@ class StockGlance implements HomePageView {
         rootAccount.setPreference("StockGlance_displayedSecurities", displayedSecuritiesList);
         rootAccount.setPreference("StockGlance_DisplayMissingPrices", allowMissingPrices);
         rootAccount.setPreference("StockGlance_TimelyWindow", timelySnapshotInterval);
+        rootAccount.setPreference("StockGlance_MaxRows", maxVisibleRows);
+        rootAccount.setPreference("StockGlance_Horizons", Horizon.formatList(horizons));
+        rootAccount.setPreference("StockGlance_Benchmark", (benchmark == null) ? "" : benchmark);
+        Set<String> hidden = new HashSet<>(hiddenColumns);
+        Set<String> shownOptional = new HashSet<>();
+        for (Column column : columns) {
+            if (column.optional && !hidden.remove(column.key)) {
+                shownOptional.add(column.key);
+            }
+        }
+        rootAccount.setPreference("StockGlance_HiddenColumns", String.join(",", hidden));
+        rootAccount.setPreference("StockGlance_ShownColumns", String.join(",", shownOptional));
+    }
+
+    private static Set<String> decodeColumnKeys(String keys) {
+        Set<String> decoded = new HashSet<>();
+        for (String key : keys.split(",")) {
+            if (!key.trim().isEmpty()) {
+                decoded.add(key.trim());
+            }
+        }
+        return decoded;
     }
 
     public Set<String> getDisplayedSecurities() { 
@@ -196,6 +437,23 @@ class StockGlance implements HomePageView {
     public void setDisplayedSecurities(Set<String> securities) {
         displayedSecuritiesList = encodeDisplayedSecurities(securities);
         savePreferences();
+        watchedSecuritiesChanged();
+    }
+
+    // Securities whose changes can affect the table: those displayed and the benchmark.
+    private Set<String> getWatchedSecurities() {
+        Set<String> watched = getDisplayedSecurities();
+        if (benchmark != null) {
+            watched.add(benchmark);
+        }
+        return watched;
+    }
+
+    private void watchedSecuritiesChanged() {
+        RefreshFilter filter = refreshFilter;
+        if (filter != null) {
+            filter.setDisplayedSecurities(getWatchedSecurities());
+        }
     }
 
     private static final String SECURITY_SEPARATOR = ", ";
@@ -225,12 +483,173 @@ class StockGlance implements HomePageView {
 
     public int getTimelySnapshotInterval() { return timelySnapshotInterval; }
 
+    public int getMaxVisibleRows() { return maxVisibleRows; }
+
+    // Changes the height of the table, so must be called on the Swing thread.
+    public void setMaxVisibleRows(int rows) {
+        maxVisibleRows = Math.max(0, rows);
+        savePreferences();
+        if (tablePane != null) {
+            tablePane.revalidate();
+        }
+    }
+
     public void setTimelySnapshotInterval(int value) {
         timelySnapshotInterval = value;
         savePreferences();
     }
 
-    
+
+    public List<Horizon> getHorizons() {
+        return horizons;
+    }
+
+    public String getBenchmark() {
+        return benchmark;
+    }
+
+    public void setBenchmark(String name) {
+        benchmark = (name == null || name.isEmpty()) ? null : name;
+        savePreferences();
+        watchedSecuritiesChanged();
+    }
+
+    // Changes the table's columns, so must be called on the Swing thread.
+    public void setHorizons(List<Horizon> newHorizons) {
+        if (newHorizons.equals(horizons)) {
+            return;
+        }
+        horizons = Collections.unmodifiableList(new ArrayList<>(newHorizons));
+        savePreferences();
+        setColumns(horizons);
+        if (table != null) {
+            table.columnsChanged();
+        }
+    }
+
+    private void setColumns(List<Horizon> horizons) {
+        columns = Column.forHorizons(horizons);
+        names = Arrays.copyOf(TEXT_NAMES, TEXT_NAMES.length + columns.size());
+        columnTypes = new String[names.length];
+        Arrays.fill(columnTypes, TEXT_COL);
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            names[TEXT_NAMES.length + i] = column.label;
+            switch (column.type) {
+                case CURRENCY0: columnTypes[TEXT_NAMES.length + i] = CURR0_COL; break;
+                case CURRENCY2: columnTypes[TEXT_NAMES.length + i] = CURR2_COL; break;
+                default: columnTypes[TEXT_NAMES.length + i] = PERCENT_COL;
+            }
+        }
+    }
+
+    // Hide or show a numeric column. Values of hidden columns are not computed, so a column that is shown is
+    // filled in by a refresh. Must be called on the Swing thread.
+    private void setColumnHidden(String key, boolean hidden) {
+        boolean changed = hidden ? hiddenColumns.add(key) : hiddenColumns.remove(key);
+        if (!changed) {
+            return;
+        }
+        savePreferences();
+        if (table != null) {
+            table.applyHiddenColumns();
+        }
+        if (!hidden) {
+            refresh(RefreshMetrics.Trigger.PREFERENCE);
+        }
+    }
+
+
+    //
+    // Computation. Runs on the compute thread, and reads only the book and the immutable inputs it is passed.
+    //
+
+    private StockGlanceEngine.Inputs currentInputs() {
+        return new StockGlanceEngine.Inputs(getDisplayedSecurities(), allowMissingPrices, timelySnapshotInterval,
+                                            horizons, benchmark,
+                                            table == null ? hiddenColumns : table.getHiddenColumns());
+    }
+
+    // Returns null if the view was reset or a newer refresh started before the computation finished. Partial
+    // snapshots are passed to progress while it runs.
+    private PortfolioSnapshot<CurrencyType> computeSnapshot(StockGlanceEngine.Inputs inputs, int generation,
+                                                            Consumer<PortfolioSnapshot<CurrencyType>> progress) {
+        StockGlanceEngine<CurrencyType> engine = this.engine;
+        if (engine == null) {
+            return null;                                    // View was reset
+        }
+        int today = DateUtil.convertCalToInt(Calendar.getInstance());
+        SnapshotCache<CurrencyType> cache = this.cache;
+        if (cache != null && cache.load(engine)) {
+            progress.accept(engine.placeholder(inputs, today));    // Last session's values, until they are checked
+        }
+        RefreshMetrics.Timer timer = metrics.start(RefreshMetrics.Phase.COMPUTE);
+        PortfolioSnapshot<CurrencyType> snapshot = engine.compute(inputs, today, () -> generation != refreshGeneration.get(),
+                                                                  progress);
+        if (snapshot != null) {
+            timer.stop(snapshot.rows.size());
+            if (cache != null) {
+                cache.saveIfDue(engine);
+            }
+        }
+        return snapshot;
+    }
+
+    // Read the balances that the Edit dialog lists with the securities on the compute thread, since the first
+    // read scans every account, and then open the dialog on the Swing thread.
+    private void openConfig() {
+        synchronized (this) {
+            BalanceLedger ledger = this.balanceLedger;
+            if (computeExecutor == null || ledger == null) {
+                return;
+            }
+            computeExecutor.execute(() -> {
+                Map<CurrencyType, Double> balances;
+                try {
+                    balances = ledger.getBalances();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(System.err);
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    SGPanel panel = tablePane;
+                    if (panel != null) {
+                        panel.openConfigPanel(balances);
+                    }
+                });
+            });
+        }
+    }
+
+    // Compute the correlations of the displayed securities' returns on the compute thread, after any refresh in
+    // progress, and show them on the Swing thread.
+    private void openCorrelations() {
+        synchronized (this) {
+            StockGlanceEngine<CurrencyType> engine = this.engine;
+            if (computeExecutor == null || engine == null) {
+                return;
+            }
+            Set<String> names = getDisplayedSecurities();
+            computeExecutor.execute(() -> {
+                int today = DateUtil.convertCalToInt(Calendar.getInstance());
+                CorrelationMatrix<CurrencyType> matrix;
+                try {
+                    matrix = engine.correlate(names, today);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(System.err);
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    SGPanel panel = tablePane;
+                    if (panel != null) {
+                        panel.showCorrelations(matrix);
+                    }
+                });
+            });
+        }
+    }
+
+
     //
     // Implementation and private classes.
     //
@@ -240,6 +659,20 @@ class StockGlance implements HomePageView {
         private transient StockGlance thisSG;
         private SGTable footerTable = null;
 
+        // Renderers are shared by every cell of a column type. They draw the text the model cached for the cell.
+        private final DefaultTableCellRenderer textRenderer;
+        private final DefaultTableCellRenderer numberRenderer;
+        private final DefaultTableCellRenderer defaultRenderer = new DefaultTableCellRenderer();
+
+        // Width of each cell's contents, [model column][model row], and the widest cell in each column.
+        private static final int UNMEASURED = -1;
+        private int[][] cellWidths = new int[0][0];     // UNMEASURED if not measured since the cell changed
+        private int[] columnWidths = new int[0];
+        private transient Font measuredFont = null;
+        private boolean measureAll = true;
+        private int dirtyFirstRow = Integer.MAX_VALUE;  // Range of rows updated since last measured
+        private int dirtyLastRow = -1;
+
         SGTable(MoneydanceGUI mdGUI, StockGlance thisSG, AccountBook book, boolean isMainTable) {
             super();
 
@@ -248,16 +681,22 @@ class StockGlance implements HomePageView {
 
             this.setForeground(mdGUI.getColors().registerTextFG);
             this.setBackground(mdGUI.getColors().registerBG1);
+
+            textRenderer = new CachedTextRenderer(mdGUI, LEFT);
+            numberRenderer = new CachedTextRenderer(mdGUI, RIGHT);
             
             // Body table
-            SGTableModel tableModel = new SGTableModel(new Vector<>(), columnNames, new Vector<>());
+            SGTableModel tableModel = new SGTableModel();
             this.setModel(tableModel);
-            setAutoCreateRowSorter(true);
 
             if (isMainTable) {
+                setRowSorter(new SGRowSorter(tableModel));
+                getTableHeader().setDefaultRenderer(new SGTableHeaderRenderer());
+
                 // Footer table
                 this.footerTable = new SGTable(mdGUI, thisSG, book, false);
-                SGTableModel footerTableModel = new SGTableModel(new Vector<>(), columnNames, new Vector<>());
+                SGTableModel footerTableModel = new SGTableModel();
+                footerTableModel.setTotal(0.0);
                 footerTable.setModel(footerTableModel);
 
                 // Link body and footer columns
@@ -266,132 +705,211 @@ class StockGlance implements HomePageView {
                 this.getColumnModel().addColumnModelListener(footerTable);
                 footerTable.getColumnModel().addColumnModelListener(this);
 
-                recomputeModel(book, getDisplayedSecurities(), getAllowMissingPrices(), getTimelySnapshotInterval());
+                // Measure rows as they scroll into view, in this table's scroll pane or the home page's
+                addComponentListener(new ComponentAdapter() {
+                    @Override
+                    public void componentMoved(ComponentEvent e) {
+                        measureVisibleRows();
+                    }
+
+                    @Override
+                    public void componentResized(ComponentEvent e) {
+                        measureVisibleRows();
+                    }
+                });
+                addHierarchyBoundsListener(new HierarchyBoundsAdapter() {
+                    @Override
+                    public void ancestorMoved(HierarchyEvent e) {
+                        measureVisibleRows();
+                    }
+
+                    @Override
+                    public void ancestorResized(HierarchyEvent e) {
+                        measureVisibleRows();
+                    }
+                });
+
+                getTableHeader().addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mousePressed(MouseEvent e) {
+                        maybeShowColumnMenu(e);
+                    }
+
+                    @Override
+                    public void mouseReleased(MouseEvent e) {
+                        maybeShowColumnMenu(e);
+                    }
+                });
+                applyHiddenColumns();
+            }
+        }
+
+        private void measureVisibleRows() {
+            if (isShowing()) {
+                fixColumnAppearance();
             }
         }
 
-        public void recomputeModel(AccountBook book, Set<String> displayedSecurities, boolean allowMissingPrices, int timelySnapshotInterval) 
-        {
-            CurrencyTable ct = book.getCurrencies();
-            java.util.List<CurrencyType> allCurrencies = ct.getAllCurrencies();
-            Calendar today = Calendar.getInstance();
+        // Tall enough for every row, or for the maximum number of rows shown before scrolling.
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            int rows = getRowCount();
+            if (thisSG.getMaxVisibleRows() > 0) {
+                rows = Math.min(rows, thisSG.getMaxVisibleRows());
+            }
+            return new Dimension(getPreferredSize().width, rows * getRowHeight());
+        }
 
-            SGTableModel model = this.getDataModel();
-            Vector<CurrencyType> rowCurrencies = model.getRowCurrencies();      // Type of security in each row
-            rowCurrencies.clear();
-            Vector<Vector> data = model.getDataVector();
-            data.clear();
+        // Right-clicking the header offers a menu to hide or show each numeric column.
+        private void maybeShowColumnMenu(MouseEvent e) {
+            if (!e.isPopupTrigger()) {
+                return;
+            }
+            JPopupMenu menu = new JPopupMenu();
+            for (Column column : columns) {
+                JCheckBoxMenuItem item = new JCheckBoxMenuItem(column.label, !hiddenColumns.contains(column.key));
+                item.addActionListener(event -> setColumnHidden(column.key, !item.isSelected()));
+                menu.add(item);
+            }
+            menu.show(e.getComponent(), e.getX(), e.getY());
+        }
 
-            Map<CurrencyType, Double> balances = sumBalancesByCurrency(book);
-            Double totalBalance = 0.0;
-    
-            for (CurrencyType curr : allCurrencies) {
-                if (!curr.getHideInUI()
-                    && curr.getCurrencyType() == CurrencyType.Type.SECURITY
-                    && (displayedSecurities != null && displayedSecurities.contains(curr.getName()))) {
-                    Double price =    getAdjRelativeRate(curr, backDays(today, 0), timelySnapshotInterval);
-                    Double price1 =   getAdjRelativeRate(curr, backDays(today, 1), timelySnapshotInterval);
-                    Double price7 =   getAdjRelativeRate(curr, backDays(today, 7), timelySnapshotInterval);
-                    Double price30 =  getAdjRelativeRate(curr, backDays(today, 30), timelySnapshotInterval);
-                    Double price365 = getAdjRelativeRate(curr, backDays(today, 365), timelySnapshotInterval);
-    
-                    if (allowMissingPrices
-                        || (!Double.isNaN(price)
-                            && (!Double.isNaN(price1) || !Double.isNaN(price7) || !Double.isNaN(price30) || !Double.isNaN(price365)))) {
-                        Vector<Object> entry = new Vector<>(names.length);
-                        Double shares = balances.get(curr);
-                        Double dShares = (shares == null) ? 0.0 : shares;
-    
-                        totalBalance += dShares * 1.0 / curr.getBaseRate();
-                        //System.err.println(curr.getName()+" ("+curr.getRelativeCurrency().getName()+") bal="+dShares+", baseRate="+1.0/curr.getBaseRate());
-    
-                        entry.add(curr.getTickerSymbol());
-                        entry.add(curr.getName());
-                        entry.add(price);
-                        entry.add(price - price1);
-                        entry.add(dShares * price);
-                        entry.add((price - price1) / price1);
-                        entry.add((price - price7) / price7);
-                        entry.add((price - price30) / price30);
-                        entry.add((price - price365) / price365);
-                        
-                        data.add(entry);
-                        rowCurrencies.add(curr);
-                    }
+        // Make the column model, shared with the footer, hold exactly the columns that are not hidden.
+        void applyHiddenColumns() {
+            createDefaultColumnsFromModel();
+            TableColumnModel columnModel = getColumnModel();
+            for (int i = columnModel.getColumnCount() - 1; i >= 0; i--) {
+                TableColumn column = columnModel.getColumn(i);
+                int numeric = column.getModelIndex() - SGTableModel.FIRST_NUMERIC_COLUMN;
+                if (numeric >= 0 && numeric < columns.size() && hiddenColumns.contains(columns.get(numeric).key)) {
+                    columnModel.removeColumn(column);
                 }
             }
+            measureAll = true;
+            fixColumnAppearance();
+        }
 
-            data.sort((Vector r1, Vector r2) -> r1.get(0).toString().toLowerCase().compareTo(r2.get(0).toString().toLowerCase())); // Sort by symbol
-            model.setDataVector(data, columnNames);
+        // Keys of the numeric columns that are not in the column model, and so need not be computed.
+        Set<String> getHiddenColumns() {
+            Set<String> hidden = new HashSet<>();
+            for (int i = 0; i < columns.size(); i++) {
+                if (convertColumnIndexToView(SGTableModel.FIRST_NUMERIC_COLUMN + i) < 0) {
+                    hidden.add(columns.get(i).key);
+                }
+            }
+            return hidden;
+        }
+
+        // Display a new snapshot. Only the rows that differ from those already displayed are changed.
+        void showSnapshot(PortfolioSnapshot<CurrencyType> snapshot) {
+            RefreshMetrics.Timer apply = metrics.start(RefreshMetrics.Phase.APPLY);
+            getDataModel().setRows(snapshot.rows);
 
-            SGTableModel footerModel = (SGTableModel)footerTable.getModel();
-            Vector<Vector> footerData = footerModel.getDataVector();
-            footerData.clear();
-            Vector<Object> footerRow = new Vector<>();
-            footerRow.add("Total");
-            footerRow.add(null);
-            footerRow.add(null);
-            footerRow.add(null);
-            footerRow.add(totalBalance);
-            footerRow.add(null);
-            footerRow.add(null);
-            footerRow.add(null);
-            footerRow.add(null);  
-            footerData.add(footerRow);
-            footerModel.setDataVector(footerData, columnNames);
+            ((SGTableModel)footerTable.getModel()).setTotal(snapshot.totalBaseBalance);
+            apply.stop(snapshot.rows.size());
 
+            RefreshMetrics.Timer widths = metrics.start(RefreshMetrics.Phase.COLUMN_WIDTHS);
             fixColumnAppearance();
+            widths.stop(snapshot.rows.size());
         }
-   
-        private void fixColumnAppearance() {
-            getTableHeader().setDefaultRenderer(new SGTableHeaderRenderer());
 
-            final TableColumnModel cm = getColumnModel();
-            for (int column = 0; column < getColumnCount(); column++) {
-                int width = 15; // Min width
-                for (int row = 0; row < getRowCount(); row++) {
-                    TableCellRenderer renderer = getCellRenderer(row, column);
-                    Component comp = prepareRenderer(renderer, row, column);
-                    width = Math.max(Math.min(comp.getPreferredSize().width + 1, 150) , width);
-                }
-                cm.getColumn(column).setPreferredWidth(width);
+        // The columns changed. Rows are shown again by the next snapshot.
+        void columnsChanged() {
+            getDataModel().resetColumns();
+            if (footerTable != null) {
+                footerTable.getDataModel().resetColumns();
             }
+            applyHiddenColumns();
         }
 
-        private Double getAdjRelativeRate(CurrencyType curr, int asOfDate, int interval) {
-            // getSnapshotForDate does not take into account the interval. It looks for a snap before
-            // the date, and if none is found, it looks after the date.
-            CurrencySnapshot snap = curr.getSnapshotForDate(asOfDate);
-            int snapDate = snap.getDateInt();
-            //System.err.println(curr+" "+asOfDate+" "+interval+" "+snap);
-            // First look in interval before the date: (T-I .. T]
-            if ((DateUtil.incrementDate(asOfDate, 0, 0, -interval) < snapDate) && (snapDate <= asOfDate)) {
-                return 1.0 / curr.adjustRateForSplitsInt(snapDate, snap.getRate());
+        // Size each column to its widest measured cell. Only cells in rows that are on screen are measured, and
+        // only if they changed since they were last measured, so a long table costs no more to lay out than the
+        // part of it that is visible. Rows that scroll into view are measured then, and may widen a column. If
+        // rows were inserted or removed or the font changed, the visible rows are measured afresh.
+        private void fixColumnAppearance() {
+            int rowCount = getModel().getRowCount();
+            int columnCount = getModel().getColumnCount();
+            int capacity = (cellWidths.length == 0) ? 0 : cellWidths[0].length;
+            if (getFont() != measuredFont || cellWidths.length != columnCount || capacity < rowCount) {
+                measuredFont = getFont();
+                cellWidths = new int[columnCount][Math.max(rowCount, 2 * capacity)];
+                columnWidths = new int[columnCount];
+                measureAll = true;
             }
-            // Now look in interval after the date: [T .. T+I)
-            snap = curr.getSnapshotForDate(asOfDate + interval);
-            if ((asOfDate <= snapDate) && (snapDate < DateUtil.incrementDate(asOfDate, 0, 0, interval))) {
-                return 1.0 / curr.adjustRateForSplitsInt(snapDate, snap.getRate());
+
+            // Rows on screen, in view order. Before the table is displayed, those that will be shown first.
+            int firstVisible = 0;
+            int lastVisible = rowCount - 1;
+            Rectangle visible = getVisibleRect();
+            if (visible.isEmpty()) {
+                if (thisSG.getMaxVisibleRows() > 0) {
+                    lastVisible = Math.min(lastVisible, thisSG.getMaxVisibleRows() - 1);
+                }
+            } else {
+                firstVisible = Math.max(0, rowAtPoint(new Point(visible.x, visible.y)));
+                int last = rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+                lastVisible = (last < 0) ? lastVisible : last;
             }
-            return Double.NaN;
-         }
 
-        // Return the date that is delta days before startDate
-        private int backDays(Calendar startDate, int delta) {
-            Calendar newDate = (Calendar) startDate.clone();
-            newDate.add(Calendar.DAY_OF_MONTH, -delta);
-            return DateUtil.convertCalToInt(newDate);
+            int firstDirty = measureAll ? 0 : dirtyFirstRow;
+            int lastDirty = measureAll ? rowCount - 1 : Math.min(dirtyLastRow, rowCount - 1);
+            for (int column = 0; column < columnCount; column++) {
+                int[] widths = cellWidths[column];
+                boolean rescan = measureAll;
+                int maxWidth = columnWidths[column];
+                for (int row = firstDirty; row <= lastDirty; row++) {
+                    if (widths[row] == maxWidth) {
+                        rescan = true;                  // Widest cell may have narrowed
+                    }
+                    widths[row] = UNMEASURED;
+                }
+                for (int viewRow = firstVisible; viewRow <= lastVisible; viewRow++) {
+                    int row = convertRowIndexToModel(viewRow);
+                    if (widths[row] == UNMEASURED) {
+                        widths[row] = measureCell(row, column);
+                        maxWidth = Math.max(maxWidth, widths[row]);
+                    }
+                }
+                if (rescan) {
+                    maxWidth = 15; // Min width
+                    for (int row = 0; row < rowCount; row++) {
+                        maxWidth = Math.max(widths[row], maxWidth);
+                    }
+                }
+                int viewColumn = convertColumnIndexToView(column);
+                if (viewColumn >= 0 && (maxWidth != columnWidths[column] || measureAll)) {
+                    getColumnModel().getColumn(viewColumn).setPreferredWidth(maxWidth);
+                }
+                columnWidths[column] = maxWidth;
+            }
+
+            measureAll = false;
+            dirtyFirstRow = Integer.MAX_VALUE;
+            dirtyLastRow = -1;
         }
 
-        public Map<CurrencyType, Double> sumBalancesByCurrency(AccountBook book) {
-            HashMap<CurrencyType, Double> totals = new HashMap<>();
-            for (Account acct : AccountUtil.allMatchesForSearch(book, AcctFilter.ALL_ACCOUNTS_FILTER)) {
-                CurrencyType curr = acct.getCurrencyType();
-                Double total = totals.get(curr);
-                total = ((total == null) ? 0.0 : total) + acct.getCurrentBalance() / 10000.0;
-                totals.put(curr, total);
+        // Preferred width of a cell's contents, given model coordinates.
+        private int measureCell(int modelRow, int modelColumn) {
+            int row = convertRowIndexToView(modelRow);
+            int column = convertColumnIndexToView(modelColumn);
+            if (row < 0 || column < 0) {
+                return 0;
+            }
+            Component comp = prepareRenderer(getCellRenderer(row, column), row, column);
+            return Math.min(comp.getPreferredSize().width + 1, 150);
+        }
+
+        // Note which rows need to be measured again.
+        @Override
+        public void tableChanged(TableModelEvent e) {
+            super.tableChanged(e);
+            if (e.getType() == TableModelEvent.UPDATE && e.getFirstRow() != TableModelEvent.HEADER_ROW
+                && e.getLastRow() != Integer.MAX_VALUE) {
+                dirtyFirstRow = Math.min(dirtyFirstRow, e.getFirstRow());
+                dirtyLastRow = Math.max(dirtyLastRow, e.getLastRow());
+            } else {
+                measureAll = true;                      // Rows inserted or deleted, or whole table changed
             }
-            return totals;
         }
 
         private JTable getFooterTable() {
@@ -404,21 +922,41 @@ class StockGlance implements HomePageView {
 
         private void setDisplayedSecurities(Set<String>  securities) {
             thisSG.setDisplayedSecurities(securities);
-            thisSG.refresh();
+            thisSG.refresh(RefreshMetrics.Trigger.PREFERENCE);
         }
 
         private boolean getAllowMissingPrices() { return thisSG.getAllowMissingPrices(); }
 
         private void setAllowMissingPrices(boolean flag) {
             thisSG.setAllowMissingPrices(flag);
-            thisSG.refresh();
+            thisSG.refresh(RefreshMetrics.Trigger.PREFERENCE);
         }
 
         private int getTimelySnapshotInterval() { return thisSG.getTimelySnapshotInterval(); }
 
         private void setTimelySnapshotInterval(int value) {
             thisSG.setTimelySnapshotInterval(value);
-            thisSG.refresh();
+            thisSG.refresh(RefreshMetrics.Trigger.PREFERENCE);
+        }
+
+        private int getMaxVisibleRows() { return thisSG.getMaxVisibleRows(); }
+
+        private void setMaxVisibleRows(int rows) {
+            thisSG.setMaxVisibleRows(rows);
+        }
+
+        private List<Horizon> getHorizons() { return thisSG.getHorizons(); }
+
+        private void setHorizons(List<Horizon> horizons) {
+            thisSG.setHorizons(horizons);
+            thisSG.refresh(RefreshMetrics.Trigger.PREFERENCE);
+        }
+
+        private String getBenchmark() { return thisSG.getBenchmark(); }
+
+        private void setBenchmark(String name) {
+            thisSG.setBenchmark(name);
+            thisSG.refresh(RefreshMetrics.Trigger.PREFERENCE);
         }
 
         private SGTableModel getDataModel() {
@@ -433,35 +971,18 @@ class StockGlance implements HomePageView {
         // Rendering depends on row (i.e. security's currency) as well as column
         @Override
         public TableCellRenderer getCellRenderer(int row, int column) {
-            DefaultTableCellRenderer renderer;
-            switch (columnTypes[column]) {
+            switch (columnTypes[convertColumnIndexToModel(column)]) {
                 case TEXT_COL:
-                    renderer = new DefaultTableCellRenderer();
-                    renderer.setHorizontalAlignment(LEFT);
-                    break;
+                    return textRenderer;
 
                 case CURR0_COL:
                 case CURR2_COL:
-                    Vector<CurrencyType> rowCurrencies = getDataModel().getRowCurrencies();
-                    CurrencyType curr;
-                    if (0 <= row && row < rowCurrencies.size()) {
-                        curr = rowCurrencies.get(row);              // Security
-                    } else {
-                        curr = book.getCurrencies().getBaseType(); // Footer reports base currency
-                    }
-                    renderer = new CurrencyRenderer(mdGUI, curr, columnTypes[column].equals(CURR0_COL));
-                    renderer.setHorizontalAlignment(RIGHT);
-                    break;
-
                 case PERCENT_COL:
-                    renderer = new PercentRenderer(mdGUI);
-                    renderer.setHorizontalAlignment(RIGHT);
-                    break;
+                    return numberRenderer;
 
                 default:
-                    renderer = new DefaultTableCellRenderer();
+                    return defaultRenderer;
             }
-            return renderer;
         }
 
         @Override
@@ -487,13 +1008,56 @@ class StockGlance implements HomePageView {
     }
 
 
-    // TableModel
-    private class SGTableModel extends DefaultTableModel {
-        private final transient Vector<CurrencyType> rowCurrencies;
+    // TableModel. The symbol and name columns are stored as arrays of strings and each numeric column as an
+    // array of doubles. The arrays are reused from one snapshot to the next and grow only when there are more rows
+    // than ever before. Rows are inserted, updated, and removed individually so that listeners see row-level events
+    // rather than a change to the whole table.
+    private class SGTableModel extends AbstractTableModel {
+        private static final int FIRST_NUMERIC_COLUMN = 2;
+        private static final int BALANCE_COLUMN = FIRST_NUMERIC_COLUMN + SecurityRow.BALANCE;
+
+        private int rowCount = 0;
+        private transient CurrencyType[] currencies = new CurrencyType[0];     // Security displayed in each row
+        private String[] symbols = new String[0];
+        private String[] stockNames = new String[0];
+        private String[] sortKeys = new String[0];
+        private CollationKey[] symbolKeys = new CollationKey[0];      // For sorting the text columns
+        private CollationKey[] nameKeys = new CollationKey[0];
+        private transient CurrencyType[] relativeTos = new CurrencyType[0];    // Currency format of each row
+        private double[][] values = new double[names.length - FIRST_NUMERIC_COLUMN][0];   // [column][row]
+
+        // Display text and color of each cell, [column][row]. Formatted when a row's values or currency format
+        // change, so painting a cell only draws its cached text.
+        private String[][] text = new String[names.length][0];
+        private boolean[][] negative = new boolean[names.length][0];
+        private final transient CellFormatter formatter = new CellFormatter();
+        private final transient Collator collator = Collator.getInstance();    // As TableRowSorter compares text
+
+        @Override
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return names.length;
+        }
 
-        SGTableModel(Vector<Vector<Object>> data, Vector<String> columnNames, Vector<CurrencyType> rowCurrencies) {
-            super(data, columnNames);
-            this.rowCurrencies = rowCurrencies;
+        @Override
+        public String getColumnName(int column) {
+            return names[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            switch (column) {
+                case 0:
+                    return symbols[row];
+                case 1:
+                    return stockNames[row];
+                default:
+                    return values[column - FIRST_NUMERIC_COLUMN][row];
+            }
         }
 
         // Need to define so columns are properly sorted, not treated as strings.
@@ -515,8 +1079,300 @@ class StockGlance implements HomePageView {
             }
         }
 
-        Vector<CurrencyType> getRowCurrencies() {
-            return rowCurrencies;
+        // Value by which SGRowSorter orders a cell: a collation key for text, so comparing two rows does not
+        // collate their strings again, and otherwise the value.
+        Comparable<?> getSortValue(int row, int column) {
+            switch (column) {
+                case 0:
+                    return symbolKeys[row];
+                case 1:
+                    return nameKeys[row];
+                default:
+                    return values[column - FIRST_NUMERIC_COLUMN][row];
+            }
+        }
+
+        String getText(int row, int column) {
+            return text[column][row];
+        }
+
+        boolean isNegative(int row, int column) {
+            return negative[column][row];
+        }
+
+        // Replace the rows with new ones, which are in SecurityRow.ORDER. Rows are merged in order: a row for the
+        // same security is updated in place, and the rest are inserted or removed, so listeners see only what
+        // changed. Consecutive inserted rows, and consecutive updated rows, are reported as one event, so filling
+        // an empty table, or a price change in every row, is one event.
+        void setRows(List<SecurityRow<CurrencyType>> newRows) {
+            ensureCapacity(newRows.size());
+            int row = 0;
+            int inserted = -1;                      // First of the rows inserted but not yet reported
+            int updated = -1;                       // First of the rows updated but not yet reported
+            for (int i = 0; i < newRows.size(); i++) {
+                SecurityRow<CurrencyType> newRow = newRows.get(i);
+                // Rows that sort before the new row are no longer displayed (or have moved later)
+                while (row < rowCount && currencies[row] != newRow.security
+                       && SecurityRow.compare(sortKeys[row], stockNames[row], newRow.sortKey, newRow.name) <= 0) {
+                    inserted = reportInserted(inserted, row);
+                    updated = reportUpdated(updated, row);
+                    deleteRow(row);
+                }
+                if (row < rowCount && currencies[row] == newRow.security) {
+                    inserted = reportInserted(inserted, row);
+                    if (!sameValues(row, newRow)) {
+                        copyRow(row, newRow);
+                        updated = (updated < 0) ? row : updated;
+                    } else {
+                        updated = reportUpdated(updated, row);
+                    }
+                } else {
+                    updated = reportUpdated(updated, row);
+                    openRow(row);
+                    copyRow(row, newRow);
+                    inserted = (inserted < 0) ? row : inserted;
+                }
+                row++;
+            }
+            reportInserted(inserted, row);
+            reportUpdated(updated, row);
+            while (row < rowCount) {
+                deleteRow(row);
+            }
+        }
+
+        // Report the rows from first (if not -1) up to end as inserted, and return -1.
+        private int reportInserted(int first, int end) {
+            if (first >= 0) {
+                fireTableRowsInserted(first, end - 1);
+            }
+            return -1;
+        }
+
+        // Report the rows from first (if not -1) up to end as updated, and return -1.
+        private int reportUpdated(int first, int end) {
+            if (first >= 0) {
+                fireTableRowsUpdated(first, end - 1);
+            }
+            return -1;
+        }
+
+        // Drop every row and size the columns for the current column metadata.
+        void resetColumns() {
+            int capacity = currencies.length;
+            Arrays.fill(currencies, null);
+            Arrays.fill(relativeTos, null);
+            values = new double[names.length - FIRST_NUMERIC_COLUMN][capacity];
+            text = new String[names.length][capacity];
+            negative = new boolean[names.length][capacity];
+            rowCount = 0;
+            fireTableStructureChanged();
+        }
+
+        // Make this a one-row footer that shows a total in the balance column.
+        void setTotal(double total) {
+            if (rowCount == 1 && Double.compare(values[BALANCE_COLUMN - FIRST_NUMERIC_COLUMN][0], total) == 0) {
+                return;
+            }
+            ensureCapacity(1);
+            boolean isNew = rowCount == 0;
+            rowCount = 1;
+            currencies[0] = null;
+            symbols[0] = "Total";
+            stockNames[0] = null;
+            sortKeys[0] = "";
+            relativeTos[0] = book.getCurrencies().getBaseType().getRelativeCurrency();    // Footer reports base currency
+            for (double[] column : values) {
+                column[0] = Double.NaN;
+            }
+            values[BALANCE_COLUMN - FIRST_NUMERIC_COLUMN][0] = total;
+            formatRow(0);
+            if (isNew) {
+                fireTableRowsInserted(0, 0);
+            } else {
+                fireTableRowsUpdated(0, 0);
+            }
+        }
+
+        private boolean sameValues(int row, SecurityRow<CurrencyType> newRow) {
+            if (!Objects.equals(symbols[row], newRow.symbol) || !Objects.equals(stockNames[row], newRow.name)
+                || relativeTos[row] != newRow.security.getRelativeCurrency()) {
+                return false;
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (Double.compare(values[i][row], newRow.values[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void copyRow(int row, SecurityRow<CurrencyType> newRow) {
+            if (symbolKeys[row] == null || !Objects.equals(symbols[row], newRow.symbol)) {
+                symbolKeys[row] = collator.getCollationKey(newRow.symbol);
+            }
+            if (nameKeys[row] == null || !Objects.equals(stockNames[row], newRow.name)) {
+                nameKeys[row] = collator.getCollationKey(newRow.name);
+            }
+            currencies[row] = newRow.security;
+            symbols[row] = newRow.symbol;
+            stockNames[row] = newRow.name;
+            sortKeys[row] = newRow.sortKey;
+            relativeTos[row] = newRow.security.getRelativeCurrency();
+            for (int i = 0; i < values.length; i++) {
+                values[i][row] = newRow.values[i];
+            }
+            formatRow(row);
+        }
+
+        private void formatRow(int row) {
+            text[0][row] = symbols[row];
+            text[1][row] = stockNames[row];
+            for (int column = FIRST_NUMERIC_COLUMN; column < names.length; column++) {
+                double value = values[column - FIRST_NUMERIC_COLUMN][row];
+                switch (columnTypes[column]) {
+                    case CURR0_COL:
+                    case CURR2_COL:
+                        text[column][row] = formatter.formatCurrency(value, relativeTos[row], columnTypes[column].equals(CURR0_COL));
+                        negative[column][row] = CellFormatter.currencyValue(value) < 0.0;
+                        break;
+
+                    case PERCENT_COL:
+                        text[column][row] = formatter.formatPercent(value);
+                        negative[column][row] = CellFormatter.percentValue(value) < 0.0;
+                        break;
+
+                    default:
+                        text[column][row] = Double.isNaN(value) ? "" : Double.toString(value);
+                        negative[column][row] = false;
+                }
+            }
+        }
+
+        // Make room for a row at the given index by shifting later rows down.
+        private void openRow(int row) {
+            ensureCapacity(rowCount + 1);
+            int count = rowCount - row;
+            System.arraycopy(currencies, row, currencies, row + 1, count);
+            System.arraycopy(symbols, row, symbols, row + 1, count);
+            System.arraycopy(stockNames, row, stockNames, row + 1, count);
+            System.arraycopy(sortKeys, row, sortKeys, row + 1, count);
+            System.arraycopy(symbolKeys, row, symbolKeys, row + 1, count);
+            System.arraycopy(nameKeys, row, nameKeys, row + 1, count);
+            System.arraycopy(relativeTos, row, relativeTos, row + 1, count);
+            for (double[] column : values) {
+                System.arraycopy(column, row, column, row + 1, count);
+            }
+            for (int column = 0; column < text.length; column++) {
+                System.arraycopy(text[column], row, text[column], row + 1, count);
+                System.arraycopy(negative[column], row, negative[column], row + 1, count);
+            }
+            rowCount++;
+        }
+
+        private void deleteRow(int row) {
+            int count = rowCount - row - 1;
+            System.arraycopy(currencies, row + 1, currencies, row, count);
+            System.arraycopy(symbols, row + 1, symbols, row, count);
+            System.arraycopy(stockNames, row + 1, stockNames, row, count);
+            System.arraycopy(sortKeys, row + 1, sortKeys, row, count);
+            System.arraycopy(symbolKeys, row + 1, symbolKeys, row, count);
+            System.arraycopy(nameKeys, row + 1, nameKeys, row, count);
+            System.arraycopy(relativeTos, row + 1, relativeTos, row, count);
+            for (double[] column : values) {
+                System.arraycopy(column, row + 1, column, row, count);
+            }
+            for (int column = 0; column < text.length; column++) {
+                System.arraycopy(text[column], row + 1, text[column], row, count);
+                System.arraycopy(negative[column], row + 1, negative[column], row, count);
+            }
+            rowCount--;
+            currencies[rowCount] = null;               // Don't hold on to removed securities
+            symbolKeys[rowCount] = null;
+            nameKeys[rowCount] = null;
+            relativeTos[rowCount] = null;
+            fireTableRowsDeleted(row, row);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= currencies.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, 2 * currencies.length);
+            currencies = Arrays.copyOf(currencies, newCapacity);
+            symbols = Arrays.copyOf(symbols, newCapacity);
+            stockNames = Arrays.copyOf(stockNames, newCapacity);
+            sortKeys = Arrays.copyOf(sortKeys, newCapacity);
+            symbolKeys = Arrays.copyOf(symbolKeys, newCapacity);
+            nameKeys = Arrays.copyOf(nameKeys, newCapacity);
+            relativeTos = Arrays.copyOf(relativeTos, newCapacity);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Arrays.copyOf(values[i], newCapacity);
+            }
+            for (int column = 0; column < text.length; column++) {
+                text[column] = Arrays.copyOf(text[column], newCapacity);
+                negative[column] = Arrays.copyOf(negative[column], newCapacity);
+            }
+        }
+    }
+
+    // Sorts the table by the columns the user clicks, comparing the model's sort values: collation keys for the
+    // text columns and numbers for the rest. A row whose values change moves to its new place rather than the
+    // table being sorted again, and the selection follows it. The sort survives a change of columns, as far as
+    // the sorted column still exists.
+    private class SGRowSorter extends DefaultRowSorter<SGTableModel, Integer> {
+        SGRowSorter(SGTableModel model) {
+            setModelWrapper(new ModelWrapper<SGTableModel, Integer>() {
+                @Override
+                public SGTableModel getModel() {
+                    return model;
+                }
+
+                @Override
+                public int getColumnCount() {
+                    return model.getColumnCount();
+                }
+
+                @Override
+                public int getRowCount() {
+                    return model.getRowCount();
+                }
+
+                @Override
+                public Object getValueAt(int row, int column) {
+                    return model.getSortValue(row, column);
+                }
+
+                @Override
+                public String getStringValueAt(int row, int column) {
+                    return model.getText(row, column);
+                }
+
+                @Override
+                public Integer getIdentifier(int row) {
+                    return row;
+                }
+            });
+            setSortsOnUpdates(true);
+        }
+
+        @Override
+        public Comparator<?> getComparator(int column) {
+            return Comparator.naturalOrder();
+        }
+
+        @Override
+        protected boolean useToString(int column) {
+            return false;
+        }
+
+        @Override
+        public void modelStructureChanged() {
+            List<SortKey> keys = new ArrayList<>(getSortKeys());
+            if (keys.removeIf(key -> key.getColumn() >= getModelWrapper().getColumnCount())) {
+                setSortKeys(keys);
+            }
+            super.modelStructureChanged();
         }
     }
 
@@ -527,6 +1383,7 @@ class StockGlance implements HomePageView {
         private SGTable table;
         private JPanel configPanel;
         private JFrame frame;
+        private JFrame correlationFrame;
 
         SGPanel(MoneydanceGUI mdGUI, SGTable table) {
             super();
@@ -547,25 +1404,64 @@ class StockGlance implements HomePageView {
             headerPanel.add(editButton);
             editButton.addActionListener(e -> openConfigPanel());
 
+            // The rows scroll, under the column headings, once there are more than the maximum to show. JTable
+            // paints only the rows in view, and SGTable measures only those.
+            JScrollPane rowScroller = new JScrollPane(this.table) {
+                @Override
+                public Dimension getMaximumSize() {
+                    return new Dimension(super.getMaximumSize().width, getPreferredSize().height);
+                }
+            };
+            rowScroller.setBorder(BorderFactory.createEmptyBorder());
+            rowScroller.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+
+            // The footer stays below the rows. While the scroll bar shows, a gap as wide as it keeps the footer's
+            // columns lined up with the table's.
+            JScrollBar scrollBar = rowScroller.getVerticalScrollBar();
+            Component scrollBarGap = Box.createHorizontalStrut(scrollBar.getPreferredSize().width);
+            scrollBarGap.setVisible(scrollBar.isVisible());
+            scrollBar.addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentShown(ComponentEvent e) {
+                    scrollBarGap.setVisible(true);
+                }
+
+                @Override
+                public void componentHidden(ComponentEvent e) {
+                    scrollBarGap.setVisible(false);
+                }
+            });
+            JPanel footerPanel = new JPanel(new BorderLayout());
+            footerPanel.add(this.table.getFooterTable(), BorderLayout.CENTER);
+            footerPanel.add(scrollBarGap, BorderLayout.EAST);
+
             this.setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
             this.add(headerPanel);
-            this.add(this.table.getTableHeader());
-            this.add(this.table);
-            this.add(this.table.getFooterTable());
+            this.add(rowScroller);
+            this.add(footerPanel);
             this.setBorder(BorderFactory.createCompoundBorder(MoneydanceLAF.homePageBorder, 
                                 BorderFactory.createEmptyBorder(0, 0, 0, 0)));
             
         }
 
+        // The dialog is built the first time it is opened, with the balances read by openConfig.
         private void openConfigPanel() {
-            this.configPanel = getConfigPanel();
+            if (this.configPanel == null) {
+                openConfig();
+            } else {
+                openConfigPanel(null);
+            }
+        }
+
+        void openConfigPanel(Map<CurrencyType, Double> balances) {
+            this.configPanel = getConfigPanel(balances);
             this.frame = new JFrame();
             this.frame.add(this.configPanel);
             this.frame.pack();
             this.frame.setVisible(true);
         }
 
-        protected synchronized JPanel getConfigPanel() {
+        protected synchronized JPanel getConfigPanel(Map<CurrencyType, Double> balances) {
             if (this.configPanel != null) {
                 return this.configPanel;
             } else {
@@ -597,19 +1493,47 @@ class StockGlance implements HomePageView {
                 JPanel checkboxPanel = new JPanel(new GridLayout(0, 1));
                 checkboxPanel.add(missingPriceCheckbox);
 
-                SecuritySelection securitySelectionList = new SecuritySelection(securitesList(this.table.getDisplayedSecurities()));
+                JLabel horizonLabel = new JLabel("Returns over (for example: 1d, 7d, 3m, ytd, 1y, 5y, inception)", CENTER);
+                horizonLabel.setForeground(mdGUI.getColors().filterBarFG);
+                JTextField horizonField = new JTextField();
+                JPanel horizonPanel = new JPanel(new GridLayout(0, 1));
+                horizonPanel.add(horizonLabel);
+                horizonPanel.add(horizonField);
+
+                JLabel rowsLabel = new JLabel("Rows shown before the table scrolls (0 for all)", CENTER);
+                rowsLabel.setForeground(mdGUI.getColors().filterBarFG);
+                JSpinner rowsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000, 5));
+                JPanel rowsPanel = new JPanel(new GridLayout(0, 1));
+                rowsPanel.add(rowsLabel);
+                rowsPanel.add(rowsSpinner);
+
+                Vector<SecurityListEntry> securities = securitesList(this.table.getDisplayedSecurities(), balances);
+                JLabel benchmarkLabel = new JLabel("Benchmark for excess returns", CENTER);
+                benchmarkLabel.setForeground(mdGUI.getColors().filterBarFG);
+                JComboBox<String> benchmarkBox = new JComboBox<>();
+                benchmarkBox.addItem(NO_BENCHMARK);
+                for (SecurityListEntry entry : securities) {
+                    benchmarkBox.addItem(entry.name);
+                }
+                JPanel benchmarkPanel = new JPanel(new GridLayout(0, 1));
+                benchmarkPanel.add(benchmarkLabel);
+                benchmarkPanel.add(benchmarkBox);
+
+                SecuritySelection securitySelectionList = new SecuritySelection(securities);
                 JScrollPane listScroller = new JScrollPane(securitySelectionList);
 
-                resetUI(securitySelectionList, missingPriceCheckbox, intervalSlider);
+                resetUI(securitySelectionList, missingPriceCheckbox, intervalSlider, horizonField, rowsSpinner, benchmarkBox);
 
                 JPanel buttonPanel = new JPanel(new GridLayout(1, 0));
                 buttonPanel.setForeground(mdGUI.getColors().filterBarFG);
                 buttonPanel.setBackground(mdGUI.getColors().filterBarBtnBG);
                 JButton resetButton = new JButton("Reset");
-                resetButton.addActionListener(e -> resetUI(securitySelectionList, missingPriceCheckbox, intervalSlider));
+                resetButton.addActionListener(e -> resetUI(securitySelectionList, missingPriceCheckbox, intervalSlider, horizonField, rowsSpinner, benchmarkBox));
+                JButton correlationButton = new JButton("Correlations");
+                correlationButton.addActionListener(e -> openCorrelations());
                 JButton cancelButton = new JButton("Cancel");
                 cancelButton.addActionListener(e -> {
-                    resetUI(securitySelectionList, missingPriceCheckbox, intervalSlider);
+                    resetUI(securitySelectionList, missingPriceCheckbox, intervalSlider, horizonField, rowsSpinner, benchmarkBox);
                     this.frame.setVisible(false);
                 });
                 JButton okButton = new JButton("OK");
@@ -618,9 +1542,13 @@ class StockGlance implements HomePageView {
                     this.table.setDisplayedSecurities(selectedSecurities);
                     this.table.setAllowMissingPrices(missingPriceCheckbox.isSelected());
                     this.table.setTimelySnapshotInterval(label2Interval(intervalSlider.getValue()));
+                    this.table.setHorizons(Horizon.parseList(horizonField.getText()));
+                    this.table.setMaxVisibleRows((Integer) rowsSpinner.getValue());
+                    this.table.setBenchmark((benchmarkBox.getSelectedIndex() > 0) ? (String) benchmarkBox.getSelectedItem() : null);
                     this.frame.setVisible(false);
                 });
                 buttonPanel.add(resetButton);
+                buttonPanel.add(correlationButton);
                 buttonPanel.add(Box.createHorizontalGlue());
                 buttonPanel.add(cancelButton);
                 buttonPanel.add(okButton);
@@ -632,6 +1560,9 @@ class StockGlance implements HomePageView {
                 int y = 0;
                 cPanel.add(sliderPanel, GridC.getc(1, y++).field());
                 cPanel.add(checkboxPanel, GridC.getc(1, y++).field());
+                cPanel.add(horizonPanel, GridC.getc(1, y++).field());
+                cPanel.add(rowsPanel, GridC.getc(1, y++).field());
+                cPanel.add(benchmarkPanel, GridC.getc(1, y++).field());
                 cPanel.add(Box.createVerticalStrut(40), GridC.getc(1, y++).field());
                 cPanel.add(Box.createHorizontalStrut(40), GridC.getc(0, y).field());
                 cPanel.add(listScroller, GridC.getc(1, y).field().wxy(1.0F, 1.0F).fillboth());
@@ -642,8 +1573,62 @@ class StockGlance implements HomePageView {
             }
         }
 
-        private Vector<SecurityListEntry> securitesList(Set<String> displayedSecurities) {
-            Map<CurrencyType, Double> balances = table.sumBalancesByCurrency(book);
+        // Show a matrix of correlations (or, if chosen, covariances) of the displayed securities' returns, in its
+        // own window. The symbols are a row header, so they stay in view as a wide matrix scrolls.
+        void showCorrelations(CorrelationMatrix<CurrencyType> matrix) {
+            CorrelationTableModel model = new CorrelationTableModel(matrix);
+            JTable matrixTable = new JTable(model);
+            matrixTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+            matrixTable.setDefaultRenderer(Double.class, new CorrelationRenderer());
+            matrixTable.getTableHeader().setReorderingAllowed(false);
+            for (int i = 0; i < model.getColumnCount(); i++) {
+                matrixTable.getColumnModel().getColumn(i).setPreferredWidth(64);
+            }
+            JList<String> symbols = new JList<>(model.symbols);
+            symbols.setFixedCellHeight(matrixTable.getRowHeight());
+            symbols.setBackground(matrixTable.getTableHeader().getBackground());
+            JScrollPane matrixScroller = new JScrollPane(matrixTable);
+            matrixScroller.setRowHeaderView(symbols);
+            matrixScroller.setPreferredSize(new Dimension(800, 600));
+
+            JComboBox<String> measure = new JComboBox<>(new String[] {"Correlation", "Covariance"});
+            measure.addActionListener(e -> model.setCovariance(measure.getSelectedIndex() == 1));
+            StringBuilder note = new StringBuilder();
+            if (matrix.returnCount == 0) {
+                note.append("Too few dates on which every security has a price");
+            } else {
+                note.append(matrix.returnCount).append(" returns between the ")
+                    .append(matrix.returnCount + 1).append(" dates from ").append(formatDate(matrix.firstDate))
+                    .append(" to ").append(formatDate(matrix.lastDate)).append(" on which every security has a price");
+            }
+            if (!matrix.omitted.isEmpty()) {
+                note.append("; omitted for lack of prices:");
+                for (CurrencyType security : matrix.omitted) {
+                    note.append(' ').append(CorrelationTableModel.symbol(security));
+                }
+            }
+            JPanel topPanel = new JPanel(new BorderLayout(8, 0));
+            topPanel.setBorder(BorderFactory.createEmptyBorder(4, 6, 4, 6));
+            topPanel.add(measure, BorderLayout.WEST);
+            topPanel.add(new JLabel(note.toString()), BorderLayout.CENTER);
+
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.add(topPanel, BorderLayout.NORTH);
+            panel.add(matrixScroller, BorderLayout.CENTER);
+            if (this.correlationFrame == null) {
+                this.correlationFrame = new JFrame("StockGlance Correlations");
+            }
+            this.correlationFrame.setContentPane(panel);
+            this.correlationFrame.pack();
+            this.correlationFrame.setVisible(true);
+        }
+
+        private String formatDate(int date) {
+            return String.format("%04d-%02d-%02d", date / 10000, (date / 100) % 100, date % 100);
+        }
+
+        private Vector<SecurityListEntry> securitesList(Set<String> displayedSecurities,
+                                                        Map<CurrencyType, Double> balances) {
             Vector<SecurityListEntry> securities = new Vector<>();
             for (CurrencyType curr : book.getCurrencies().getAllCurrencies()) {
                 if (!curr.getHideInUI() && curr.getCurrencyType() == CurrencyType.Type.SECURITY) {
@@ -657,10 +1642,18 @@ class StockGlance implements HomePageView {
             return securities;
         }
         
-        private void resetUI(SecuritySelection securitySelectionList, JCheckBox missingPriceCheckbox, JSlider intervalSlider) {
+        private void resetUI(SecuritySelection securitySelectionList, JCheckBox missingPriceCheckbox, JSlider intervalSlider,
+                             JTextField horizonField, JSpinner rowsSpinner, JComboBox<String> benchmarkBox) {
             securitySelectionList.setSelected(this.table.getDisplayedSecurities());
             missingPriceCheckbox.setSelected(this.table.getAllowMissingPrices());
             intervalSlider.setValue(interval2Label(this.table.getTimelySnapshotInterval()));
+            horizonField.setText(Horizon.formatList(this.table.getHorizons()));
+            rowsSpinner.setValue(this.table.getMaxVisibleRows());
+            String benchmark = this.table.getBenchmark();
+            benchmarkBox.setSelectedIndex(0);
+            if (benchmark != null) {
+                benchmarkBox.setSelectedItem(benchmark);    // Left at none if it is no longer a security
+            }
         }
 
         @Override
@@ -669,6 +1662,10 @@ class StockGlance implements HomePageView {
                 this.configPanel.removeAll();
                 this.configPanel = null;
             }
+            if (this.correlationFrame != null) {
+                this.correlationFrame.dispose();
+                this.correlationFrame = null;
+            }
             super.removeAll();
         }
 
@@ -796,6 +1793,89 @@ class StockGlance implements HomePageView {
 
     }
 
+    // Cells of a CorrelationMatrix, a column per security. The row headers are symbols.
+    private static class CorrelationTableModel extends AbstractTableModel {
+        private final CorrelationMatrix<CurrencyType> matrix;
+        final String[] symbols;
+        private boolean covariance = false;
+
+        CorrelationTableModel(CorrelationMatrix<CurrencyType> matrix) {
+            this.matrix = matrix;
+            this.symbols = new String[matrix.size()];
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = symbol(matrix.securities.get(i));
+            }
+        }
+
+        static String symbol(CurrencyType security) {
+            String symbol = security.getTickerSymbol();
+            return (symbol == null || symbol.isEmpty()) ? security.getName() : symbol;
+        }
+
+        void setCovariance(boolean covariance) {
+            this.covariance = covariance;
+            fireTableDataChanged();
+        }
+
+        boolean isCovariance() {
+            return covariance;
+        }
+
+        @Override
+        public int getRowCount() {
+            return matrix.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return matrix.size();
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return symbols[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return Double.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return covariance ? matrix.getCovariance(row, column) : matrix.getCorrelation(row, column);
+        }
+    }
+
+    // A correlation with 2 decimals, shaded by its strength: green for positive, red for negative. A covariance
+    // with 3 significant digits, unshaded.
+    private static class CorrelationRenderer extends DefaultTableCellRenderer {
+        CorrelationRenderer() {
+            setHorizontalAlignment(RIGHT);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+                                                       int row, int column) {
+            double v = (Double) value;
+            boolean covariance = ((CorrelationTableModel) table.getModel()).isCovariance();
+            String text = Double.isNaN(v) ? "" : String.format(covariance ? "%.3g" : "%.2f", v);
+            super.getTableCellRendererComponent(table, text, isSelected, hasFocus, row, column);
+            if (!isSelected) {
+                Color background = table.getBackground();
+                if (!covariance && !Double.isNaN(v)) {
+                    Color tint = (v >= 0) ? Color.GREEN : Color.RED;
+                    double weight = Math.min(1.0, Math.abs(v)) * 0.4;
+                    background = new Color((int) (background.getRed() * (1 - weight) + tint.getRed() * weight),
+                                           (int) (background.getGreen() * (1 - weight) + tint.getGreen() * weight),
+                                           (int) (background.getBlue() * (1 - weight) + tint.getBlue() * weight));
+                }
+                setBackground(background);
+            }
+            return this;
+        }
+    }
+
     // CurrencyListener
     private static class CurrencyCallback implements CurrencyListener {
         private final StockGlance thisSG;
@@ -805,11 +1885,18 @@ class StockGlance implements HomePageView {
         }
 
         public void currencyTableModified(CurrencyTable table) {
-            thisSG.refresh();
+            RefreshFilter filter = thisSG.refreshFilter;
+            if (filter == null) {
+                thisSG.refresh(RefreshMetrics.Trigger.CURRENCY_LISTENER);
+            } else {
+                filter.currencyTableModified();             // Checked by scheduledRefresh
+                thisSG.scheduler.request();
+            }
         }
     }
 
-    // AccountListener
+    // AccountListener. Every change is recorded in the balance ledger, but only changes to accounts that hold a
+    // displayed security cause a refresh.
     private static class AccountCallback implements AccountListener {
         private final StockGlance thisSG;
 
@@ -818,111 +1905,171 @@ class StockGlance implements HomePageView {
         }
 
         public void accountAdded(Account parentAccount, Account newAccount) {
-            thisSG.refresh();
+            boolean relevant = isRelevant(newAccount);
+            BalanceLedger ledger = thisSG.balanceLedger;
+            if (ledger != null) {
+                ledger.accountAdded(newAccount);
+            }
+            refreshIf(relevant);
         }
 
         public void accountBalanceChanged(Account newAccount) {
-            thisSG.refresh();
+            boolean relevant = isRelevant(newAccount);
+            BalanceLedger ledger = thisSG.balanceLedger;
+            if (ledger != null) {
+                ledger.accountChanged(newAccount);
+            }
+            refreshIf(relevant);
         }
 
         public void accountDeleted(Account parentAccount, Account newAccount) {
-            thisSG.refresh();
+            boolean relevant = isRelevant(newAccount);
+            BalanceLedger ledger = thisSG.balanceLedger;
+            if (ledger != null) {
+                ledger.accountDeleted(newAccount);
+            }
+            refreshIf(relevant);
         }
 
         public void accountModified(Account newAccount) {
-            thisSG.refresh();
+            boolean relevant = isRelevant(newAccount);
+            BalanceLedger ledger = thisSG.balanceLedger;
+            if (ledger != null) {
+                ledger.accountChanged(newAccount);
+            }
+            refreshIf(relevant);
         }
-    }
-
-    // Renderers
-    // Render a currency with given number of fractional digits. NaN or null is an empty cell.
-    // Negative values are red.
-    private static class CurrencyRenderer extends DefaultTableCellRenderer {
-        private transient MoneydanceGUI mdGUI;
-        private final boolean noDecimals;
-        private final transient CurrencyType relativeTo;
-        private final char decimalSeparator = '.'; // ToDo: Set from preferences (how?)
-        private final NumberFormat noDecimalFormatter;
 
+        // Decided before the ledger is updated, while it still knows the account's previous currency.
+        private boolean isRelevant(Account acct) {
+            RefreshFilter filter = thisSG.refreshFilter;
+            return filter == null || filter.isRelevant(acct);
+        }
 
-        CurrencyRenderer(MoneydanceGUI mdGUI, CurrencyType curr, boolean noDecimals) {
-            super();
-            this.mdGUI = mdGUI;
-            this.noDecimals = noDecimals;
-            this.relativeTo = curr.getRelativeCurrency();
-            this.noDecimalFormatter = NumberFormat.getNumberInstance();
-            this.noDecimalFormatter.setMinimumFractionDigits(0);
-            this.noDecimalFormatter.setMaximumFractionDigits(0);
+        private void refreshIf(boolean relevant) {
+            if (relevant) {
+                thisSG.refresh(RefreshMetrics.Trigger.ACCOUNT_LISTENER);
+            } else {
+                thisSG.metrics.ignored(RefreshMetrics.Trigger.ACCOUNT_LISTENER);
+            }
         }
+    }
+
+    private static class TransactionCallback implements TransactionListener {
+        private final StockGlance thisSG;
 
-        boolean isZero(Double value) {
-            return Math.abs(value) < 0.01;
+        TransactionCallback(StockGlance sg) {
+            this.thisSG = sg;
         }
 
-        @Override
-        public void setValue(Object value) {
-            if (value == null) {
-                setText("");
-                return;
+        public void transactionAdded(AbstractTxn txn) {
+            boolean relevant = isRelevant(txn);
+            CostBasisLedger ledger = thisSG.costBasisLedger;
+            if (ledger != null) {
+                ledger.transactionChanged(txn);
             }
-            Double valueAsDouble = (Double)value;
-            if (Double.isNaN(valueAsDouble)) {
-                setText("");
-                return;
+            refreshIf(relevant);
+        }
+
+        public void transactionModified(AbstractTxn txn) {
+            boolean relevant = isRelevant(txn);
+            CostBasisLedger ledger = thisSG.costBasisLedger;
+            if (ledger != null) {
+                ledger.transactionChanged(txn);
             }
+            refreshIf(relevant);
+        }
 
-            if (isZero(valueAsDouble)) {
-                valueAsDouble = 0.0;
+        public void transactionRemoved(AbstractTxn txn) {
+            boolean relevant = isRelevant(txn);
+            CostBasisLedger ledger = thisSG.costBasisLedger;
+            if (ledger != null) {
+                ledger.transactionRemoved(txn);
             }
-            if (noDecimals) {
-                // MD format functions can't print comma-separated values without a decimal point so
-                // we have to do it ourselves
-                setText(relativeTo.getPrefix() + " " + noDecimalFormatter.format(valueAsDouble) + relativeTo.getSuffix());
+            refreshIf(relevant);
+        }
+
+        // A transaction that traded a displayed security before an edit and not after is missed, but the edit
+        // also changes that security's balance, which the account listener sees.
+        private boolean isRelevant(AbstractTxn txn) {
+            RefreshFilter filter = thisSG.refreshFilter;
+            return filter == null || filter.isRelevant(txn);
+        }
+
+        private void refreshIf(boolean relevant) {
+            if (relevant) {
+                thisSG.refresh(RefreshMetrics.Trigger.TRANSACTION_LISTENER);
             } else {
-                setText(relativeTo.formatFancy(relativeTo.getLongValue(valueAsDouble), decimalSeparator));
+                thisSG.metrics.ignored(RefreshMetrics.Trigger.TRANSACTION_LISTENER);
             }
-            if (valueAsDouble < 0.0) {
+        }
+    }
+
+    private static class CachedTextRenderer extends DefaultTableCellRenderer {
+        private transient MoneydanceGUI mdGUI;
+
+        CachedTextRenderer(MoneydanceGUI mdGUI, int alignment) {
+            super();
+            this.mdGUI = mdGUI;
+            setHorizontalAlignment(alignment);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+                                                       int row, int column) {
+            SGTableModel model = (SGTableModel) table.getModel();
+            int modelRow = table.convertRowIndexToModel(row);
+            int modelColumn = table.convertColumnIndexToModel(column);
+            super.getTableCellRendererComponent(table, model.getText(modelRow, modelColumn), isSelected, hasFocus, row, column);
+            if (model.isNegative(modelRow, modelColumn)) {
                 setForeground(mdGUI.getColors().negativeBalFG);
-            } else {
+            } else if (!isSelected) {
                 setForeground(mdGUI.getColors().registerTextFG);
             }
+            return this;
         }
     }
 
-    // Render a percentage with 2 digits after the decimal point. Conventions as CurrencyRenderer
-    private static class PercentRenderer extends DefaultTableCellRenderer {
-        private transient MoneydanceGUI mdGUI;
+    // Format numeric values for display. A currency is shown with 0 or 2 fractional digits in its own format, and a
+    // percentage with 2 digits after the decimal point. NaN is an empty cell. Used only on the Swing thread.
+    static class CellFormatter {
         private final char decimalSeparator = '.'; // ToDo: Set from preferences (how?)
+        private final NumberFormat noDecimalFormatter;
 
-        PercentRenderer(MoneydanceGUI mdGUI) {
-            super();
-            this.mdGUI = mdGUI;
+        CellFormatter() {
+            this.noDecimalFormatter = NumberFormat.getNumberInstance();
+            this.noDecimalFormatter.setMinimumFractionDigits(0);
+            this.noDecimalFormatter.setMaximumFractionDigits(0);
         }
 
-        private boolean isZero(Double value) {
-            return Math.abs(value) < 0.0001;
+        // Values that round to zero are shown as zero, not as a negative value.
+        static double currencyValue(double value) {
+            return Math.abs(value) < 0.01 ? 0.0 : value;
         }
 
-        @Override
-        public void setValue(Object value) {
-            if (value == null) {
-                setText("");
-                return;
-            }
-            Double valueAsDouble = (Double)value;
-            if (Double.isNaN(valueAsDouble)) {
-                setText("");
-                return;
-            }
-            if (isZero(valueAsDouble)) {
-                valueAsDouble = 0.0;
+        static double percentValue(double value) {
+            return Math.abs(value) < 0.0001 ? 0.0 : value;
+        }
+
+        String formatCurrency(double value, CurrencyType relativeTo, boolean noDecimals) {
+            if (Double.isNaN(value)) {
+                return "";
             }
-            setText(StringUtils.formatPercentage(valueAsDouble, decimalSeparator) + "%");
-            if (valueAsDouble < 0.0) {
-                setForeground(mdGUI.getColors().negativeBalFG);
+            value = currencyValue(value);
+            if (noDecimals) {
+                // MD format functions can't print comma-separated values without a decimal point so
+                // we have to do it ourselves
+                return relativeTo.getPrefix() + " " + noDecimalFormatter.format(value) + relativeTo.getSuffix();
             } else {
-                setForeground(mdGUI.getColors().registerTextFG);
+                return relativeTo.formatFancy(relativeTo.getLongValue(value), decimalSeparator);
+            }
+        }
+
+        String formatPercent(double value) {
+            if (Double.isNaN(value)) {
+                return "";
             }
+            return StringUtils.formatPercentage(percentValue(value), decimalSeparator) + "%";
         }
     }
 
@@ -0,0 +1,620 @@
+// StockGlanceEngine.java
+//
+// Copyright (c) 2015-2021, James Larus
+//  All rights reserved.
+//
+//  Redistribution and use in source and binary forms, with or without
+//  modification, are permitted provided that the following conditions are
+//  met:
+//
+//  1. Redistributions of source code must retain the above copyright
+//  notice, this list of conditions and the following disclaimer.
+//
+//  2. Redistributions in binary form must reproduce the above copyright
+//  notice, this list of conditions and the following disclaimer in the
+//  documentation and/or other materials provided with the distribution.
+//
+//  3. Neither the name of the copyright holder nor the names of its
+//  contributors may be used to endorse or promote products derived from
+//  this software without specific prior written permission.
+//
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+//  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+//  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+//  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+//  HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+//  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+//  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+//  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+//  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+//  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+//  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.moneydance.modules.features.stockglance;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+
+// Computes the StockGlance table from a SecurityDataSource, with no dependence on Swing or on a running
+// Moneydance. Keeps a price history index for each security and the previous snapshot, whose rows are reused
+// for securities that have not changed. An engine is used by one thread at a time, which computes the rows of a
+// large book in parallel on a shared pool of workers.
+
+class StockGlanceEngine<S> {
+    static final int INFINITY = -1;                 // Interval that accepts a snapshot from any date
+    static final int PARALLEL_THRESHOLD = 256;      // Fewer displayed securities than this are computed sequentially
+    private static final int PARALLEL_GRAIN = 32;   // Securities computed by one parallel task
+    private static final int MAX_WORKERS = 32;
+    static final long PROGRESS_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);   // Between partial snapshots
+
+    private final SecurityDataSource<S> source;
+    private final Map<S, PriceHistory> priceHistories = new HashMap<>();
+    private volatile PortfolioSnapshot<S> lastSnapshot;                     // Most recently computed
+    private int parallelThreshold = PARALLEL_THRESHOLD;
+    private CorrelationMatrix<S> lastCorrelations;                          // Reused while its prices are current
+    private final AtomicBoolean verifyHistories = new AtomicBoolean();      // Set by verifyHistories
+
+    StockGlanceEngine(SecurityDataSource<S> source) {
+        this.source = source;
+    }
+
+    SecurityDataSource<S> getSource() {
+        return source;
+    }
+
+    PortfolioSnapshot<S> getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    PriceHistory getPriceHistory(S security) {
+        return priceHistories.get(security);
+    }
+
+    // Start from price histories and a snapshot saved in an earlier session (by SnapshotCache), instead of from
+    // nothing. Each history is brought up to date with its security the next time it is used, and each row is
+    // reused only if it is still current, so anything that changed since they were saved is recomputed.
+    void restore(Map<S, PriceHistory> histories, PortfolioSnapshot<S> snapshot) {
+        priceHistories.putAll(histories);
+        lastSnapshot = snapshot;
+    }
+
+    // Snapshots or splits may have been edited in place, which updating a history does not notice, so check every
+    // history in full the next time it is used. May be called on any thread.
+    void verifyHistories() {
+        verifyHistories.set(true);
+    }
+
+    // Number of displayed securities at and above which rows are computed in parallel.
+    void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    // Compute the rows to display as of today (yyyymmdd). Rows from the previous snapshot are reused for
+    // securities whose prices, balance, and description have not changed, unless the inputs changed or the
+    // date rolled over. Returns null if superseded reports true before the computation finishes. If progress is
+    // not null, a computation that takes a while passes it a partial snapshot every PROGRESS_INTERVAL, on the
+    // calling thread, in which the rows not yet computed are the previous ones or placeholders.
+    PortfolioSnapshot<S> compute(Inputs inputs, int today, BooleanSupplier superseded,
+                                 Consumer<PortfolioSnapshot<S>> progress) {
+        takeVerifyHistories();
+
+        // Prices are needed for the visible columns, and to tell whether a security has enough prices to display.
+        // Rows from the previous snapshot that lack a value for a newly shown column are recomputed.
+        long neededColumns = inputs.visibleColumns;
+        long neededSlots = 0;
+        int neededSources = 0;
+        for (int i = 0; i < inputs.columns.size(); i++) {
+            if ((neededColumns & (1L << i)) != 0) {
+                Column column = inputs.columns.get(i);
+                for (int slot : column.priceSlots) {
+                    neededSlots |= 1L << slot;
+                }
+                neededSources |= column.sources;
+            }
+        }
+        int slotCount = Column.slotCount(inputs.columns);
+        if (!inputs.allowMissingPrices) {
+            neededSlots |= (1L << slotCount) - 1;
+        }
+
+        // Dates at which prices are needed: today, yesterday (for the change), and the start of each horizon, as
+        // far as the needed slots go. They are looked up latest first, in one pass over each security's history,
+        // and order maps that back to slots.
+        List<Integer> slots = new ArrayList<>();
+        int[] startDates = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            startDates[i] = (i == Column.TODAY) ? today
+                          : (i == Column.YESTERDAY) ? backDays(today, 1)
+                          : inputs.horizons.get(i - Column.FIRST_HORIZON).startDate(today);
+            if ((neededSlots & (1L << i)) != 0) {
+                slots.add(i);
+            }
+        }
+        Integer[] order = slots.toArray(new Integer[0]);
+        Arrays.sort(order, (i1, i2) -> Integer.compare(startDates[i2], startDates[i1]));
+        int dateCount = order.length;
+
+        // Dates in lookup order, and the interval around each in which a price is usable
+        int[] lookupDates = new int[dateCount];
+        int[] windowStarts = new int[dateCount];
+        int[] windowEnds = new int[dateCount];
+        for (int k = 0; k < dateCount; k++) {
+            int i = order[k];
+            boolean sinceInception = i >= Column.FIRST_HORIZON
+                                     && inputs.horizons.get(i - Column.FIRST_HORIZON).isInception();
+            int interval = sinceInception ? INFINITY : inputs.timelySnapshotInterval;
+            lookupDates[k] = startDates[i];
+            windowStarts[k] = PriceHistory.windowStart(lookupDates[k], interval);
+            windowEnds[k] = PriceHistory.windowEnd(lookupDates[k], interval);
+        }
+
+        // The benchmark's return over each horizon is the same for every row, so it is looked up once here, with
+        // the same dates and intervals as the rows' prices.
+        double[] benchmarkReturns = new double[slotCount];
+        Arrays.fill(benchmarkReturns, Double.NaN);
+        if ((neededSources & Column.BENCHMARK) != 0) {
+            S benchmark = findBenchmark(inputs.benchmark);
+            if (benchmark != null) {
+                double[] lookupPrices = new double[dateCount];
+                history(benchmark).getPrices(lookupDates, windowStarts, windowEnds, lookupPrices);
+                double[] prices = new double[slotCount];
+                Arrays.fill(prices, Double.NaN);
+                for (int k = 0; k < dateCount; k++) {
+                    prices[order[k]] = lookupPrices[k];
+                }
+                for (int slot = Column.FIRST_HORIZON; slot < slotCount; slot++) {
+                    benchmarkReturns[slot] = (prices[Column.TODAY] - prices[slot]) / prices[slot];
+                }
+            }
+        }
+
+        PortfolioSnapshot<S> previous = lastSnapshot;
+        boolean recomputeAll = previous == null
+            || previous.today != today
+            || !previous.inputs.sameExceptVisibility(inputs);
+
+        List<S> securities = new ArrayList<>();
+        for (S security : source.getSecurities()) {
+            if (inputs.displayedSecurities.contains(source.getName(security))) {
+                securities.add(security);
+            }
+        }
+        RowComputation computation = new RowComputation(inputs, recomputeAll ? null : previous, neededColumns,
+                                                        neededSources, slotCount, startDates, order, lookupDates,
+                                                        windowStarts, windowEnds, benchmarkReturns, securities,
+                                                        today, superseded, progress);
+        boolean parallel = securities.size() >= parallelThreshold && Workers.POOL.getParallelism() > 1;
+        computation.loadRows(progress != null, !parallel);
+        if (parallel && !computation.abandoned) {
+            computation.await(Workers.POOL.submit(computation.new RowTask(0, securities.size())));
+        }
+        if (computation.abandoned) {
+            return null;
+        }
+
+        // Rows are gathered in the order of the securities, however they were computed, so the rows and the
+        // footer total summed from them are the same as a sequential computation's.
+        Map<S, SecurityRow<S>> computed = new HashMap<>();
+        List<SecurityRow<S>> rows = new ArrayList<>();
+        for (SecurityRow<S> row : computation.rows) {
+            computed.put(row.security, row);
+            if (inputs.allowMissingPrices || row.hasPrices()) {
+                rows.add(row);
+            }
+        }
+        rows.sort(SecurityRow.ORDER);
+
+        PortfolioSnapshot<S> snapshot = new PortfolioSnapshot<>(inputs, today, computed, rows);
+        lastSnapshot = snapshot;
+        return snapshot;
+    }
+
+    PortfolioSnapshot<S> compute(Inputs inputs, int today, BooleanSupplier superseded) {
+        return compute(inputs, today, superseded, null);
+    }
+
+    PortfolioSnapshot<S> compute(Inputs inputs, int today) {
+        return compute(inputs, today, () -> false);
+    }
+
+    // Security's price history, built or brought up to date with its snapshots.
+    private PriceHistory history(S security) {
+        PriceHistory history = priceHistories.get(security);
+        if (history == null) {
+            history = PriceHistory.build(source, security);
+            priceHistories.put(security, history);
+        } else {
+            history.update(source, security);
+        }
+        return history;
+    }
+
+    private void takeVerifyHistories() {
+        if (verifyHistories.getAndSet(false)) {
+            for (PriceHistory history : priceHistories.values()) {
+                history.verify();
+            }
+        }
+    }
+
+    // Security with the benchmark's name, whether or not it is displayed, or null if there is none.
+    private S findBenchmark(String name) {
+        if (name != null) {
+            for (S security : source.getSecurities()) {
+                if (name.equals(source.getName(security))) {
+                    return security;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Correlations of the returns of the securities with the given names, ordered by symbol, over the
+    // CorrelationMatrix.DAYS through today (yyyymmdd). The last matrix is returned again if it is for the same
+    // securities and none of their prices has changed, so opening it again costs only the price history updates.
+    CorrelationMatrix<S> correlate(Set<String> names, int today) {
+        takeVerifyHistories();
+        List<S> securities = new ArrayList<>();
+        for (S security : source.getSecurities()) {
+            if (names.contains(source.getName(security))) {
+                securities.add(security);
+            }
+        }
+        securities.sort((s1, s2) -> {
+            String symbol1 = source.getTickerSymbol(s1);
+            String symbol2 = source.getTickerSymbol(s2);
+            return SecurityRow.compare((symbol1 == null) ? "" : symbol1.toLowerCase(), source.getName(s1),
+                                       (symbol2 == null) ? "" : symbol2.toLowerCase(), source.getName(s2));
+        });
+        List<PriceHistory> histories = new ArrayList<>();
+        for (S security : securities) {
+            histories.add(history(security));
+        }
+        CorrelationMatrix<S> matrix = lastCorrelations;
+        if (matrix == null || !matrix.isCurrent(securities, histories, today)) {
+            matrix = CorrelationMatrix.compute(securities, histories, today, Workers.POOL);
+            lastCorrelations = matrix;
+        }
+        return matrix;
+    }
+
+    // Snapshot of the displayed securities to show while the first real one is computed. Each has its row from
+    // the last snapshot (e.g., one restored from the cache) if there is one for the same inputs, and otherwise
+    // no values. Looks at no prices or balances and leaves the engine unchanged, so it is quick and may be called
+    // on any thread.
+    PortfolioSnapshot<S> placeholder(Inputs inputs, int today) {
+        PortfolioSnapshot<S> last = lastSnapshot;
+        Map<S, SecurityRow<S>> known = (last != null && last.inputs.sameExceptVisibility(inputs))
+                                       ? last.computed : Collections.emptyMap();
+        List<SecurityRow<S>> rows = new ArrayList<>();
+        for (S security : source.getSecurities()) {
+            if (inputs.displayedSecurities.contains(source.getName(security))) {
+                SecurityRow<S> row = known.get(security);
+                if (row == null) {
+                    rows.add(placeholderRow(security, inputs));
+                } else if (inputs.allowMissingPrices || row.hasPrices()) {
+                    rows.add(row);
+                }
+            }
+        }
+        rows.sort(SecurityRow.ORDER);
+        return new PortfolioSnapshot<>(inputs, today, Collections.emptyMap(), rows);
+    }
+
+    private SecurityRow<S> placeholderRow(S security, Inputs inputs) {
+        return SecurityRow.placeholder(security, source.getTickerSymbol(security), source.getName(security),
+                                       inputs.columns.size());
+    }
+
+    // Computes the rows of one compute call, either on the calling thread or split across the workers. Each
+    // security's row depends only on its own price history, balance, cost basis and distributions, and on the
+    // benchmark's returns, which are looked up before any row is computed, so rows can be computed in any order.
+    // Everything is read from the source first, on the calling thread, since Moneydance's objects are not safe to
+    // read from several threads while Moneydance may be changing them; the workers see only the price histories'
+    // arrays and the values copied from the source.
+    private class RowComputation {
+        private final Inputs inputs;
+        private final PortfolioSnapshot<S> previous;        // Whose rows are reused, or null
+        private final long neededColumns;
+        private final int neededSources;
+        private final int slotCount;
+        private final int[] startDates;                     // Of each price slot
+        private final Integer[] order;
+        private final int[] lookupDates;
+        private final int[] windowStarts;
+        private final int[] windowEnds;
+        private final double[] benchmarkReturns;            // Over each price slot's horizon, NaN if unknown
+        private final List<S> securities;
+        private final PriceHistory[] histories;             // Of each security, as loaded
+        private final Column.Data[] data;                   // What each security's row is computed from
+        private final String[] symbols;
+        private final String[] names;
+        private final double[] baseRates;
+        private final int today;
+        private final int yearAgo;                          // Start of RiskStats' window
+        private final BooleanSupplier superseded;
+        private final Consumer<PortfolioSnapshot<S>> progress;
+        private long nextProgress;                          // When to next report progress (System.nanoTime)
+        final SecurityRow<S>[] rows;                        // Row of each security
+        volatile boolean abandoned = false;                 // Superseded before all rows were computed
+
+        @SuppressWarnings("unchecked")
+        RowComputation(Inputs inputs, PortfolioSnapshot<S> previous, long neededColumns, int neededSources,
+                       int slotCount, int[] startDates, Integer[] order, int[] lookupDates, int[] windowStarts,
+                       int[] windowEnds, double[] benchmarkReturns, List<S> securities, int today,
+                       BooleanSupplier superseded, Consumer<PortfolioSnapshot<S>> progress) {
+            this.inputs = inputs;
+            this.previous = previous;
+            this.neededColumns = neededColumns;
+            this.neededSources = neededSources;
+            this.slotCount = slotCount;
+            this.startDates = startDates;
+            this.order = order;
+            this.lookupDates = lookupDates;
+            this.windowStarts = windowStarts;
+            this.windowEnds = windowEnds;
+            this.benchmarkReturns = benchmarkReturns;
+            this.securities = securities;
+            this.histories = new PriceHistory[securities.size()];
+            this.data = new Column.Data[securities.size()];
+            this.symbols = new String[securities.size()];
+            this.names = new String[securities.size()];
+            this.baseRates = new double[securities.size()];
+            this.today = today;
+            this.yearAgo = backDays(today, RiskStats.WINDOW_DAYS);
+            this.superseded = superseded;
+            this.progress = progress;
+            this.nextProgress = System.nanoTime() + PROGRESS_INTERVAL;
+            this.rows = (SecurityRow<S>[]) new SecurityRow<?>[securities.size()];
+        }
+
+        // Read what each security's row is computed from out of the source, on the calling thread, reusing the
+        // previous row of each security for which nothing has changed. Computes each other row as it goes if
+        // asked, rather than leaving it to computeRows, and reports progress if asked.
+        void loadRows(boolean reportProgress, boolean compute) {
+            double[] lookupPrices = new double[order.length];
+            for (int i = 0; i < rows.length; i++) {
+                if (superseded.getAsBoolean()) {
+                    abandoned = true;
+                    return;
+                }
+                loadRow(i);
+                if (compute && rows[i] == null) {
+                    rows[i] = computeRow(i, lookupPrices);
+                }
+                if (reportProgress && System.nanoTime() >= nextProgress) {
+                    reportProgress();
+                }
+            }
+        }
+
+        // Compute the rows of securities [from, to) that were loaded but not reused.
+        void computeRows(int from, int to) {
+            double[] lookupPrices = new double[order.length];
+            for (int i = from; i < to && !abandoned; i++) {
+                if (rows[i] != null) {
+                    continue;
+                }
+                if (superseded.getAsBoolean()) {
+                    abandoned = true;
+                    return;
+                }
+                rows[i] = computeRow(i, lookupPrices);
+            }
+        }
+
+        // Wait for the workers to compute the rows, reporting progress meanwhile if asked.
+        void await(ForkJoinTask<?> task) {
+            if (progress == null) {
+                task.join();
+                return;
+            }
+            while (true) {
+                try {
+                    task.get(Math.max(0, nextProgress - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    reportProgress();
+                } catch (InterruptedException e) {
+                    abandoned = true;                       // Workers stop at their next security
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    task.join();                            // Rethrows what the task threw
+                }
+            }
+        }
+
+        // Pass progress the rows computed so far, and the previous row or a placeholder for each of the rest.
+        // While workers are computing, a row they are storing may or may not be seen; a row is immutable, so one
+        // that is seen is complete.
+        private void reportProgress() {
+            List<SecurityRow<S>> shown = new ArrayList<>();
+            for (int i = 0; i < rows.length; i++) {
+                SecurityRow<S> row = rows[i];
+                if (row == null) {
+                    S security = securities.get(i);
+                    row = (previous == null) ? null : previous.computed.get(security);
+                    row = (row == null) ? placeholderRow(security, inputs) : row;
+                }
+                if (inputs.allowMissingPrices || row.hasPrices()) {
+                    shown.add(row);
+                }
+            }
+            shown.sort(SecurityRow.ORDER);
+            progress.accept(new PortfolioSnapshot<>(inputs, today, Collections.emptyMap(), shown));
+            nextProgress = System.nanoTime() + PROGRESS_INTERVAL;
+        }
+
+        private void loadRow(int i) {
+            S security = securities.get(i);
+            PriceHistory history = history(security);
+            Column.Data rowData = new Column.Data(slotCount);
+            rowData.shares = source.getBalance(security);
+            rowData.sources = neededSources;
+            if ((neededSources & Column.COST_BASIS) != 0) {
+                rowData.costBasis = source.getCostBasis(security);
+            }
+            if ((neededSources & Column.DISTRIBUTIONS) != 0) {
+                for (int slot = Column.FIRST_HORIZON; slot < slotCount; slot++) {
+                    rowData.distributions[slot] = source.getDistributions(security, startDates[slot], today);
+                }
+            }
+            if ((neededSources & Column.BENCHMARK) != 0) {
+                System.arraycopy(benchmarkReturns, 0, rowData.benchmarkReturns, 0, slotCount);
+            }
+            String symbol = source.getTickerSymbol(security);
+            String name = source.getName(security);
+            double baseRate = source.getBaseRate(security);
+
+            SecurityRow<S> row = (previous == null) ? null : previous.computed.get(security);
+            if (row != null && row.isCurrent(symbol, name, baseRate, history, rowData, neededColumns)) {
+                rows[i] = row;
+            } else {
+                histories[i] = history;
+                data[i] = rowData;
+                symbols[i] = symbol;
+                names[i] = name;
+                baseRates[i] = baseRate;
+            }
+        }
+
+        // Uses only what loadRow copied, so it may run on any thread.
+        private SecurityRow<S> computeRow(int i, double[] lookupPrices) {
+            PriceHistory history = histories[i];
+            Column.Data rowData = data[i];
+            history.getPrices(lookupDates, windowStarts, windowEnds, lookupPrices);
+            Arrays.fill(rowData.prices, Double.NaN);
+            for (int k = 0; k < order.length; k++) {
+                rowData.prices[order[k]] = lookupPrices[k];
+            }
+            if ((neededSources & Column.RISK) != 0) {
+                history.getRisk(yearAgo, rowData);
+            }
+            return new SecurityRow<>(securities.get(i), symbols[i], names[i], baseRates[i], history.getVersion(),
+                                     rowData, inputs.columns, neededColumns);
+        }
+
+        // Splits a range of securities in halves until they are small enough to compute on one worker.
+        class RowTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+
+            RowTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= PARALLEL_GRAIN) {
+                    computeRows(from, to);
+                } else {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new RowTask(from, middle), new RowTask(middle, to));
+                }
+            }
+        }
+    }
+
+    // Threads that compute rows in parallel, shared by every engine and created when first needed. There is one
+    // per processor, up to a limit, and they are daemons, so an idle pool keeps nothing alive.
+    private static class Workers {
+        private static final AtomicInteger created = new AtomicInteger();
+        static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("StockGlance compute " + created.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            null, false);
+    }
+
+    // Return the date that is delta days before startDate
+    static int backDays(int startDate, int delta) {
+        return PriceHistory.addDays(startDate, -delta);
+    }
+
+    // Preferences that determine what a snapshot contains.
+    static class Inputs {
+        final Set<String> displayedSecurities;
+        final boolean allowMissingPrices;
+        final int timelySnapshotInterval;
+        final List<Horizon> horizons;               // Periods over which returns are computed
+        final String benchmark;                     // Name of the security excess returns are relative to, or null
+        final Set<String> hiddenColumns;            // Keys of columns not displayed, which are not computed
+        final List<Column> columns;                 // Numeric columns, for the horizons
+        final long visibleColumns;                  // Mask of columns not hidden
+
+        Inputs(Set<String> displayedSecurities, boolean allowMissingPrices, int timelySnapshotInterval,
+               List<Horizon> horizons, String benchmark, Set<String> hiddenColumns) {
+            this.displayedSecurities = Collections.unmodifiableSet(new HashSet<>(displayedSecurities));
+            this.allowMissingPrices = allowMissingPrices;
+            this.timelySnapshotInterval = timelySnapshotInterval;
+            this.horizons = Collections.unmodifiableList(new ArrayList<>(horizons));
+            this.benchmark = benchmark;
+            this.hiddenColumns = Collections.unmodifiableSet(new HashSet<>(hiddenColumns));
+            this.columns = Column.forHorizons(this.horizons);
+            long visible = 0;
+            for (int i = 0; i < columns.size(); i++) {
+                if (!hiddenColumns.contains(columns.get(i).key)) {
+                    visible |= 1L << i;
+                }
+            }
+            this.visibleColumns = visible;
+        }
+
+        Inputs(Set<String> displayedSecurities, boolean allowMissingPrices, int timelySnapshotInterval,
+               List<Horizon> horizons, Set<String> hiddenColumns) {
+            this(displayedSecurities, allowMissingPrices, timelySnapshotInterval, horizons, null, hiddenColumns);
+        }
+
+        Inputs(Set<String> displayedSecurities, boolean allowMissingPrices, int timelySnapshotInterval,
+               List<Horizon> horizons) {
+            this(displayedSecurities, allowMissingPrices, timelySnapshotInterval, horizons, Collections.emptySet());
+        }
+
+        Inputs(Set<String> displayedSecurities, boolean allowMissingPrices, int timelySnapshotInterval) {
+            this(displayedSecurities, allowMissingPrices, timelySnapshotInterval, Horizon.DEFAULTS);
+        }
+
+        // Rows computed for these inputs are valid for the other, apart from which columns they computed.
+        boolean sameExceptVisibility(Inputs other) {
+            return displayedSecurities.equals(other.displayedSecurities)
+                && allowMissingPrices == other.allowMissingPrices
+                && timelySnapshotInterval == other.timelySnapshotInterval
+                && horizons.equals(other.horizons)
+                && Objects.equals(benchmark, other.benchmark);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Inputs)) {
+                return false;
+            }
+            Inputs other = (Inputs) o;
+            return sameExceptVisibility(other) && hiddenColumns.equals(other.hiddenColumns);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(displayedSecurities, allowMissingPrices, timelySnapshotInterval, horizons,
+                                benchmark, hiddenColumns);
+        }
+    }
+}
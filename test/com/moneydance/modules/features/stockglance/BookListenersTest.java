@@ -0,0 +1,68 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * A ledger kept current from the book's events stays correct across the view becoming inactive and active.
+ */
+public class BookListenersTest {
+    // A book's balance, and a ledger that is built by a scan of the book and then kept current from its events,
+    // as BalanceLedger is.
+    private long bookBalance = 0;
+    private Long ledgerBalance = null;                  // Null until scanned
+    private int listenerCount = 0;
+    private int missed = 0;
+    private final BookListeners listeners = new BookListeners(() -> listenerCount++,
+                                                              () -> listenerCount = 0,
+                                                              () -> {
+                                                                  ledgerBalance = null;
+                                                                  missed++;
+                                                              });
+
+    private void post(long amount) {
+        bookBalance += amount;
+        if (listenerCount > 0 && ledgerBalance != null) {
+            ledgerBalance += amount;
+        }
+    }
+
+    private long balance() {
+        if (ledgerBalance == null) {
+            ledgerBalance = bookBalance;
+        }
+        return ledgerBalance;
+    }
+
+    @Test
+    public void testTransactionWhileInactive() {
+        listeners.setActive(true);
+        post(10);
+        assertEquals(10, balance());
+        post(5);
+        assertEquals(15, balance());                    // From the event
+
+        listeners.setActive(false);
+        assertEquals(0, listenerCount);
+        post(7);                                        // Not seen by the ledger
+        listeners.setActive(true);
+        assertEquals(22, balance());                    // Rescanned
+        assertEquals(2, missed);
+    }
+
+    @Test
+    public void testActiveAgain() {
+        listeners.setActive(true);
+        balance();
+        listeners.setActive(true);                      // Home page refreshed while visible
+        assertEquals(1, listenerCount);
+        assertEquals(1, missed);
+        assertNotNull(ledgerBalance);                   // Nothing missed, so not rescanned
+
+        listeners.setActive(false);
+        listeners.setActive(false);
+        assertEquals(0, listenerCount);
+        assertEquals(1, missed);
+    }
+}
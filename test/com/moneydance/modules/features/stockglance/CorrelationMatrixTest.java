@@ -0,0 +1,107 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Correlations of returns aligned on common price dates.
+ */
+public class CorrelationMatrixTest {
+    private static final int TODAY = 20160328;
+
+    private static PriceHistory history(int[] dates, double[] prices) {
+        return new PriceHistory(dates, prices);
+    }
+
+    @Test
+    public void testAlignedOnCommonDates() {
+        int[] dates = {20160301, 20160302, 20160303, 20160304, 20160305};
+        PriceHistory a = history(dates, new double[] {10.0, 11.0, 10.0, 12.0, 11.0});
+        PriceHistory b = history(dates, new double[] {20.0, 22.0, 20.0, 24.0, 22.0});          // Same returns
+        PriceHistory c = history(new int[] {20160301, 20160302, 20160303, 20160305},           // No 4th
+                                 new double[] {5.0, 5.0 / 1.1, 5.0, 5.0 / 1.1});
+        PriceHistory d = history(new int[] {20160301}, new double[] {1.0});                  // Too few
+        CorrelationMatrix<String> matrix = CorrelationMatrix.compute(Arrays.asList("a", "b", "c", "d"),
+                                                                     Arrays.asList(a, b, c, d), TODAY, null);
+        assertEquals(Arrays.asList("a", "b", "c"), matrix.securities);
+        assertEquals(Arrays.asList("d"), matrix.omitted);
+        assertEquals(3, matrix.returnCount);                      // Between 1st, 2nd, 3rd and 5th
+        assertEquals(20160301, matrix.firstDate);
+        assertEquals(20160305, matrix.lastDate);
+        assertEquals(1.0, matrix.getCorrelation(0, 1), 1e-12);
+        assertEquals(-1.0, matrix.getCorrelation(0, 2), 1e-12);    // c moves opposite to a on the common dates
+        assertEquals(matrix.getCovariance(0, 0), matrix.getCovariance(0, 1), 1e-15);
+        assertEquals(matrix.getCorrelation(2, 0), matrix.getCorrelation(0, 2), 0.0);
+    }
+
+    @Test
+    public void testSparseSecurityIsOmitted() {
+        int days = 60;
+        int[] dates = new int[days];
+        double[] up = new double[days];
+        double[] down = new double[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = PriceHistory.addDays(TODAY, i - days + 1);
+            up[i] = 10.0 * Math.pow(1.01, i % 7);
+            down[i] = 10.0 / Math.pow(1.01, i % 7);
+        }
+        PriceHistory sparse = history(new int[] {dates[0], dates[30], dates[59]}, new double[] {1.0, 2.0, 1.5});
+        CorrelationMatrix<String> matrix = CorrelationMatrix.compute(Arrays.asList("up", "sparse", "down"),
+                                                                     Arrays.asList(history(dates, up), sparse,
+                                                                                   history(dates, down)),
+                                                                     TODAY, null);
+        assertEquals(Arrays.asList("up", "down"), matrix.securities);
+        assertEquals(Arrays.asList("sparse"), matrix.omitted);
+        assertEquals(days - 1, matrix.returnCount);                // Not only the sparse security's dates
+        assertEquals(-1.0, matrix.getCorrelation(0, 1), 1e-12);
+    }
+
+    @Test
+    public void testTooFewCommonDates() {
+        PriceHistory a = history(new int[] {20160301, 20160302}, new double[] {1.0, 2.0});
+        PriceHistory b = history(new int[] {20160303, 20160304}, new double[] {1.0, 2.0});
+        CorrelationMatrix<String> matrix = CorrelationMatrix.compute(Arrays.asList("a", "b"),
+                                                                     Arrays.asList(a, b), TODAY, null);
+        assertEquals(2, matrix.size());
+        assertEquals(0, matrix.returnCount);
+        assertTrue(Double.isNaN(matrix.getCorrelation(0, 1)));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        Random random = new Random(5);
+        int days = 300;
+        int[] dates = new int[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = PriceHistory.addDays(TODAY, i - days + 1);
+        }
+        List<String> names = new ArrayList<>();
+        List<PriceHistory> histories = new ArrayList<>();
+        for (int s = 0; s < 100; s++) {                           // Several blocks of rows
+            double[] prices = new double[days];
+            double price = 10.0;
+            for (int i = 0; i < days; i++) {
+                price *= Math.exp(random.nextGaussian() * 0.01);
+                prices[i] = price;
+            }
+            names.add("s" + s);
+            histories.add(history(dates, prices));
+        }
+        CorrelationMatrix<String> sequential = CorrelationMatrix.compute(names, histories, TODAY, null);
+        CorrelationMatrix<String> parallel = CorrelationMatrix.compute(names, histories, TODAY, new ForkJoinPool(4));
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(1.0, sequential.getCorrelation(i, i), 1e-12);
+            for (int j = 0; j < names.size(); j++) {
+                assertEquals(sequential.getCorrelation(i, j), parallel.getCorrelation(i, j), 0.0);
+                assertEquals(sequential.getCovariance(i, j), parallel.getCovariance(i, j), 0.0);
+            }
+        }
+    }
+}
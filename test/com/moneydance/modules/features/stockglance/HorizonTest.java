@@ -0,0 +1,77 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parsing return horizons and finding where they start.
+ */
+public class HorizonTest {
+    @Test
+    public void testParse() {
+        assertEquals(new Horizon(Horizon.Unit.DAY, 7), Horizon.parse("7d"));
+        assertEquals(new Horizon(Horizon.Unit.MONTH, 3), Horizon.parse(" 3M "));
+        assertEquals(new Horizon(Horizon.Unit.YEAR, 5), Horizon.parse("5y"));
+        assertEquals(new Horizon(Horizon.Unit.YEAR_TO_DATE, 0), Horizon.parse("YTD"));
+        assertEquals(new Horizon(Horizon.Unit.INCEPTION, 0), Horizon.parse("inception"));
+        for (String bad : Arrays.asList("", "d", "0d", "-1y", "3w", "week")) {
+            try {
+                Horizon.parse(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseList() {
+        List<Horizon> horizons = Horizon.parseList("ytd, 3m, bogus, 3m, 5y, inception");
+        assertEquals("ytd, 3m, 5y, inception", Horizon.formatList(horizons));
+        assertEquals(Horizon.DEFAULTS, Horizon.parseList(""));
+        assertEquals(Horizon.DEFAULTS, Horizon.parseList(Horizon.formatList(Horizon.DEFAULTS)));
+    }
+
+    @Test
+    public void testLabels() {
+        StringBuilder labels = new StringBuilder();
+        for (Horizon horizon : Horizon.parseList("1d, 7d, 30d, 365d, 1m, 3m, 1y, 3y, ytd, inception")) {
+            labels.append(horizon.getLabel()).append('|');
+        }
+        assertEquals("Day|7 Day|30 Day|365 Day|Month|3 Month|Year|3 Year|YTD|Inception|", labels.toString());
+    }
+
+    @Test
+    public void testStartDate() {
+        int today = 20160531;
+        assertEquals(20160530, Horizon.parse("1d").startDate(today));
+        assertEquals(20160229, Horizon.parse("3m").startDate(today));
+        assertEquals(20150531, Horizon.parse("1y").startDate(today));
+        assertEquals(20110531, Horizon.parse("5y").startDate(today));
+        assertEquals(20151231, Horizon.parse("ytd").startDate(today));
+        assertEquals(20151231, Horizon.parse("ytd").startDate(20160101));
+        assertTrue(Horizon.parse("inception").startDate(today) < 19000101);
+    }
+
+    @Test
+    public void testLongestHorizons() {
+        int today = 20160531;
+        assertEquals(19160531, Horizon.parse("100y").startDate(today));
+        assertEquals(19160531, Horizon.parse("1200m").startDate(today));
+        assertTrue(Horizon.parse("36600d").startDate(today) > 19000101);
+        for (String tooLong : Arrays.asList("101y", "1201m", "36601d", "1000000y", "999999999y", "2000000000d",
+                                            "99999999999d")) {
+            try {
+                Horizon.parse(tooLong);
+                fail(tooLong);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        assertEquals("1y, 30d", Horizon.formatList(Horizon.parseList("1000000y, 1y, 2000000000d, 30d")));
+    }
+}
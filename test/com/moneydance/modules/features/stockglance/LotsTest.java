@@ -0,0 +1,89 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lots of shares left by an account's trades.
+ */
+public class LotsTest {
+    @Test
+    public void testFirstInFirstOut() {
+        Lots lots = new Lots(false);
+        lots.put("a", 20200101, 10, 100.0);
+        lots.put("b", 20200201, 10, 300.0);
+        lots.put("c", 20200301, -15, 0.0);
+        assertEquals(5, lots.getShares());
+        assertEquals(150.0, lots.getCost(), 1e-9);                 // Half of the second lot
+
+        lots.put("d", 20200401, -5, 0.0);
+        assertEquals(0, lots.getShares());
+        assertEquals(0.0, lots.getCost(), 0.0);
+    }
+
+    @Test
+    public void testAverageCost() {
+        Lots lots = new Lots(true);
+        lots.put("a", 20200101, 10, 100.0);
+        lots.put("b", 20200201, 10, 300.0);
+        lots.put("c", 20200301, -15, 0.0);
+        assertEquals(5, lots.getShares());
+        assertEquals(100.0, lots.getCost(), 1e-9);                 // A quarter of the total
+    }
+
+    @Test
+    public void testEarlierTradeAndEdits() {
+        Lots lots = new Lots(false);
+        lots.put("b", 20200201, 10, 300.0);
+        lots.put("c", 20200301, -10, 0.0);
+        assertEquals(0.0, lots.getCost(), 0.0);
+
+        lots.put("a", 20200101, 10, 100.0);                         // Earlier, so sold first
+        assertEquals(300.0, lots.getCost(), 1e-9);
+
+        lots.put("a", 20200101, 10, 200.0);                         // Edited
+        lots.remove("c");
+        assertEquals(20, lots.getShares());
+        assertEquals(500.0, lots.getCost(), 1e-9);
+
+        lots.put("d", 20200201, -10, 0.0);                          // Same day as a purchase, so after it
+        assertEquals(300.0, lots.getCost(), 1e-9);
+    }
+
+    @Test
+    public void testSharesHeldAtDistributions() {
+        Lots lots = new Lots(false);
+        lots.put("a", 20200101, 10, 100.0);
+        lots.put("b", 20200201, 0, 0.0, 5.0);                       // Dividend
+        lots.put("c", 20200301, 2, 20.0, 20.0);                     // Reinvested dividend
+        lots.put("d", 20200301, -4, 0.0);
+        lots.put("e", 20200401, 0, 0.0, 4.0);
+        StringBuilder paid = new StringBuilder();
+        lots.forEachDistribution((date, amount, shares) -> paid.append(date).append(':').append(amount)
+                                                               .append('/').append(shares).append(' '));
+        assertEquals("20200201:5.0/10 20200301:20.0/10 20200401:4.0/8 ", paid.toString());
+        assertEquals(8, lots.getShares());
+        assertEquals(60.0 + 20.0, lots.getCost(), 1e-9);            // Reinvested shares cost what was paid
+    }
+
+    @Test
+    public void testIncrementalMatchesReplay() {
+        Random random = new Random(7);
+        Lots incremental = new Lots(false);
+        Lots replayed = new Lots(false);
+        int date = 20000101;
+        for (int i = 0; i < 2000; i++) {
+            date = PriceHistory.addDays(date, random.nextInt(3));
+            long shares = (random.nextInt(3) == 0) ? -random.nextInt(50) : 1 + random.nextInt(100);
+            double amount = shares * (10.0 + random.nextInt(90));
+            incremental.put(i, date, shares, amount);
+            replayed.put(i, date, shares, amount);
+        }
+        replayed.put(-1, 19990101, 0, 0.0);                         // Earlier than the rest, so replays them
+        assertEquals(replayed.getShares(), incremental.getShares());
+        assertEquals(replayed.getCost(), incremental.getCost(), 1e-6);
+    }
+}
@@ -0,0 +1,142 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lookups in the per-security price index.
+ */
+public class PriceHistoryTest {
+    private final PriceHistory history = new PriceHistory(
+            new int[] {20160101, 20160201, 20160301, 20160315},
+            new double[] {10.0, 20.0, 30.0, 35.0});
+
+    @Test
+    public void testIndexAtOrBefore() {
+        assertEquals(-1, history.indexAtOrBefore(20151231));
+        assertEquals(0, history.indexAtOrBefore(20160101));
+        assertEquals(0, history.indexAtOrBefore(20160131));
+        assertEquals(2, history.indexAtOrBefore(20160310));
+        assertEquals(3, history.indexAtOrBefore(20170101));
+    }
+
+    @Test
+    public void testPriceBeforeDate() {
+        assertEquals(30.0, history.getPrice(20160301, 7), 0.0);
+        assertEquals(30.0, history.getPrice(20160307, 7), 0.0);
+        assertEquals(35.0, history.getPrice(20160320, 7), 0.0);
+    }
+
+    @Test
+    public void testPriceAfterDate() {
+        assertEquals(10.0, history.getPrice(20151230, 7), 0.0);
+        assertEquals(35.0, history.getPrice(20160312, 7), 0.0);
+    }
+
+    @Test
+    public void testMissingPrice() {
+        assertTrue(Double.isNaN(history.getPrice(20160115, 7)));
+        assertTrue(Double.isNaN(history.getPrice(20151201, 7)));
+        assertTrue(Double.isNaN(history.getPrice(20160401, 7)));
+    }
+
+    @Test
+    public void testInfiniteInterval() {
+        assertEquals(10.0, history.getPrice(20160115, StockGlanceEngine.INFINITY), 0.0);
+        assertEquals(10.0, history.getPrice(20150101, StockGlanceEngine.INFINITY), 0.0);
+        assertEquals(35.0, history.getPrice(20200101, StockGlanceEngine.INFINITY), 0.0);
+    }
+
+    @Test
+    public void testPricesInOnePass() {
+        int[] dates = {20160401, 20160315, 20160315, 20160310, 20160201, 20160115, 20151230, 20150101};
+        int[] windowStarts = new int[dates.length];
+        int[] windowEnds = new int[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            windowStarts[i] = PriceHistory.windowStart(dates[i], 7);
+            windowEnds[i] = PriceHistory.windowEnd(dates[i], 7);
+        }
+        double[] prices = new double[dates.length];
+        history.getPrices(dates, windowStarts, windowEnds, prices);
+        for (int i = 0; i < dates.length; i++) {
+            assertEquals(history.getPrice(dates[i], 7), prices[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testPricesInOnePassLongHistory() {
+        int size = 2000;
+        int[] dates = new int[size];
+        double[] prices = new double[size];
+        int date = 20100101;
+        for (int i = 0; i < size; i++) {
+            dates[i] = date;
+            prices[i] = i;
+            date = PriceHistory.addDays(date, 1 + i % 3);
+        }
+        PriceHistory longHistory = new PriceHistory(dates, prices);
+
+        int[] asOf = {date, 20200101, 20150615, 20150614, 20120229, 20100102, 20091231, 0};
+        int[] windowStarts = new int[asOf.length];
+        int[] windowEnds = new int[asOf.length];
+        for (int i = 0; i < asOf.length; i++) {
+            windowStarts[i] = Integer.MIN_VALUE;
+            windowEnds[i] = Integer.MAX_VALUE;
+        }
+        double[] result = new double[asOf.length];
+        longHistory.getPrices(asOf, windowStarts, windowEnds, result);
+        for (int i = 0; i < asOf.length; i++) {
+            assertEquals(longHistory.getPrice(asOf[i], Integer.MIN_VALUE, Integer.MAX_VALUE), result[i], 0.0);
+        }
+        assertEquals(0.0, result[asOf.length - 1], 0.0);            // Before every snapshot takes the first
+    }
+
+    @Test
+    public void testEditedSnapshotIsReloadedAfterVerify() {
+        InMemoryDataSource source = new InMemoryDataSource();
+        InMemoryDataSource.Security security = source.addSecurity("ABC", "Abc Corp")
+            .addSnapshot(20160101, 10.0).addSnapshot(20160201, 20.0).addSnapshot(20160301, 30.0);
+        PriceHistory edited = PriceHistory.build(source, security);
+        int version = edited.getVersion();
+
+        security.setSnapshotPrice(1, 21.0);                                    // Count and last entry unchanged
+        assertFalse(edited.update(source, security));
+        edited.verify();
+        assertTrue(edited.update(source, security));
+        assertEquals(21.0, edited.getPrice(20160201, 7), 0.0);
+        assertTrue(edited.getVersion() > version);
+        assertFalse(edited.update(source, security));
+
+        edited.verify();
+        assertFalse(edited.update(source, security));                          // Nothing else changed
+    }
+
+    @Test
+    public void testEditedSplitIsReloadedAfterVerify() {
+        InMemoryDataSource source = new InMemoryDataSource();
+        InMemoryDataSource.Security security = source.addSecurity("ABC", "Abc Corp")
+            .addSnapshot(20160101, 10.0).addSnapshot(20160301, 30.0).addSplit(20160201, 2.0);
+        PriceHistory edited = PriceHistory.build(source, security);
+        assertEquals(5.0, edited.getPrice(20160101, 7), 0.0);
+
+        security.setSplitRatio(0, 5.0);
+        edited.verify();
+        assertTrue(edited.update(source, security));
+        assertEquals(2.0, edited.getPrice(20160101, 7), 0.0);
+    }
+
+    @Test
+    public void testAppendKeepsChecksum() {
+        InMemoryDataSource source = new InMemoryDataSource();
+        InMemoryDataSource.Security security = source.addSecurity("ABC", "Abc Corp")
+            .addSnapshot(20160101, 10.0).addSnapshot(20160201, 20.0);
+        PriceHistory appended = PriceHistory.build(source, security);
+        security.addSnapshot(20160301, 30.0);
+        assertTrue(appended.update(source, security));
+        assertTrue(appended.matches(source, security));
+
+        security.setSnapshotPrice(0, 11.0);
+        assertFalse(appended.matches(source, security));
+    }
+}
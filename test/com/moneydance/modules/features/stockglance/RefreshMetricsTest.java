@@ -0,0 +1,62 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Refresh counters and latency histograms.
+ */
+public class RefreshMetricsTest {
+    private final RefreshMetrics metrics = new RefreshMetrics();
+
+    @Test
+    public void testCounters() {
+        metrics.triggered(RefreshMetrics.Trigger.ACCOUNT_LISTENER);
+        metrics.triggered(RefreshMetrics.Trigger.ACCOUNT_LISTENER);
+        metrics.triggered(RefreshMetrics.Trigger.CURRENCY_LISTENER);
+        metrics.ignored(RefreshMetrics.Trigger.ACCOUNT_LISTENER);
+        metrics.refreshStarted();
+        metrics.refreshPublished();
+
+        assertEquals(2, metrics.getTriggerCount(RefreshMetrics.Trigger.ACCOUNT_LISTENER));
+        assertEquals(1, metrics.getTriggerCount(RefreshMetrics.Trigger.CURRENCY_LISTENER));
+        assertEquals(0, metrics.getTriggerCount(RefreshMetrics.Trigger.INVOKE));
+        assertEquals(1, metrics.getIgnoredCount(RefreshMetrics.Trigger.ACCOUNT_LISTENER));
+        assertEquals(1, metrics.getRefreshCount());
+        assertEquals(1, metrics.getPublishedCount());
+        assertEquals(1, metrics.getHistogram(RefreshMetrics.Phase.QUEUED).getCount());
+
+        String summary = metrics.summary();
+        assertTrue(summary.contains("Triggers: 3"));
+        assertTrue(summary.contains("(2 triggers collapsed)"));
+        assertTrue(summary.contains("Ignored events: 1 (account listener 1)"));
+    }
+
+    @Test
+    public void testTimer() {
+        metrics.start(RefreshMetrics.Phase.COMPUTE).stop(10);
+        assertEquals(1, metrics.getHistogram(RefreshMetrics.Phase.COMPUTE).getCount());
+        assertEquals(0, metrics.getHistogram(RefreshMetrics.Phase.APPLY).getCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        RefreshMetrics.Histogram histogram = new RefreshMetrics.Histogram();
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), histogram.getMaxNanos());
+        // 100us falls in the [64, 128) us bucket
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(128), histogram.getPercentileNanos(0.5));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(128), histogram.getPercentileNanos(0.99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), histogram.getPercentileNanos(1.0));
+        assertEquals((99 * 100_000.0 + 50_000_000.0) / 100, histogram.getMeanNanos(), 1e-6);
+    }
+}
@@ -0,0 +1,84 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * When merged refresh requests become due, driven by explicit times rather than the timer thread.
+ */
+public class RefreshSchedulerTest {
+    private final RefreshScheduler scheduler = new RefreshScheduler(() -> {}, Runnable::run,
+            new RefreshScheduler.Policy(100, 1000, 2000, 16000, 500));
+
+    @Test
+    public void testIsolatedRequest() {
+        assertEquals(10100, scheduler.recordRequest(10000));
+        assertEquals(0, scheduler.takeIfDue(10099));
+        assertEquals(1, scheduler.takeIfDue(10100));
+        assertEquals(0, scheduler.takeIfDue(10200));
+    }
+
+    @Test
+    public void testRateLimit() {
+        scheduler.recordRequest(10000);
+        assertEquals(1, scheduler.takeIfDue(10100));
+        scheduler.recordRequest(12000);
+        assertEquals(12100, scheduler.dueTime());
+        scheduler.recordRequest(12150);
+        assertEquals(2, scheduler.takeIfDue(12450));         // Quiet period adapted to the 150 ms gap
+        scheduler.recordRequest(12500);
+        assertEquals(12950, scheduler.dueTime());               // 500 ms after the previous refresh
+    }
+
+    @Test
+    public void testBurst() {
+        // A request every 50 ms for 10 seconds, as a quote download might make
+        List<Integer> refreshTimes = new ArrayList<>();
+        int merged = 0;
+        for (int t = 10000; t <= 22000; t += 10) {
+            if (t % 50 == 0 && t <= 20000) {
+                scheduler.recordRequest(t);
+            }
+            int taken = scheduler.takeIfDue(t);
+            if (taken > 0) {
+                refreshTimes.add(t);
+                merged += taken;
+            }
+        }
+        assertEquals(201, merged);
+        assertTrue(refreshTimes.toString(), refreshTimes.size() <= 4);
+        assertTrue(refreshTimes.get(0) <= 12000);               // First prices shown within the staleness bound
+        assertTrue(refreshTimes.get(refreshTimes.size() - 1) <= 20000 + 1000);
+
+        RefreshScheduler.Stats stats = scheduler.getStats();
+        assertEquals(refreshTimes.size(), stats.getRefreshCount());
+        assertEquals(201, stats.getRequestCount());
+        assertTrue(stats.getMaxMerged() >= 40);
+    }
+
+    @Test
+    public void testCancel() {
+        scheduler.recordRequest(10000);
+        scheduler.cancel();
+        assertEquals(0, scheduler.takeIfDue(20000));
+    }
+
+    @Test
+    public void testStats() {
+        RefreshScheduler.Stats stats = new RefreshScheduler.Stats();
+        stats.record(1);
+        stats.record(3);
+        stats.record(40);
+        assertEquals(3, stats.getRefreshCount());
+        assertEquals(44, stats.getRequestCount());
+        assertEquals(40, stats.getMaxMerged());
+        assertEquals(1, stats.getBucket(0));
+        assertEquals(1, stats.getBucket(1));
+        assertEquals(1, stats.getBucket(5));
+        assertTrue(stats.summary().contains("32-63: 1"));
+    }
+}
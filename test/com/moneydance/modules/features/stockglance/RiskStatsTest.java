@@ -0,0 +1,79 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Volatility, drawdown, and the year's high and low of a price history.
+ */
+public class RiskStatsTest {
+    private static final int[] DATES = {20150101, 20150601, 20160101, 20160201, 20160301, 20160401};
+    private static final double[] PRICES = {10.0, 40.0, 20.0, 30.0, 15.0, 25.0};
+
+    @Test
+    public void testDrawdownHighAndLow() {
+        RiskStats risk = new RiskStats();
+        risk.advance(DATES, PRICES, DATES.length, 20151215);
+        assertEquals(15.0 / 40.0 - 1.0, risk.getMaxDrawdown(), 1e-12);     // Over the whole history
+        assertEquals(30.0, risk.getHigh(PRICES), 0.0);                      // Over the window
+        assertEquals(15.0, risk.getLow(PRICES), 0.0);
+
+        risk.advance(DATES, PRICES, DATES.length, 20160215);                // Window moves forward
+        assertEquals(25.0, risk.getHigh(PRICES), 0.0);
+        assertEquals(15.0, risk.getLow(PRICES), 0.0);
+    }
+
+    @Test
+    public void testVolatility() {
+        // Daily returns alternating +r and -r have a standard deviation of about r
+        int days = 366;
+        int[] dates = new int[days];
+        double[] prices = new double[days];
+        double r = 0.01;
+        for (int i = 0; i < days; i++) {
+            dates[i] = PriceHistory.addDays(20150101, i);
+            prices[i] = 100.0 * Math.exp((i % 2 == 0) ? 0.0 : r);
+        }
+        RiskStats risk = new RiskStats();
+        risk.advance(dates, prices, days, dates[0]);
+        assertEquals(r * Math.sqrt(365.25), risk.getVolatility(dates), 1e-3);
+    }
+
+    @Test
+    public void testIncrementalMatchesOnePass() {
+        Random random = new Random(3);
+        int days = 3000;
+        int[] dates = new int[days];
+        double[] prices = new double[days];
+        double price = 50.0;
+        for (int i = 0; i < days; i++) {
+            dates[i] = PriceHistory.addDays(20100101, i);
+            price *= Math.exp(random.nextGaussian() * 0.02);
+            prices[i] = price;
+        }
+        RiskStats incremental = new RiskStats();
+        for (int size = 1; size <= days; size += 1 + random.nextInt(5)) {
+            incremental.advance(dates, prices, size, PriceHistory.addDays(dates[size - 1], -RiskStats.WINDOW_DAYS));
+        }
+        incremental.advance(dates, prices, days, PriceHistory.addDays(dates[days - 1], -RiskStats.WINDOW_DAYS));
+        RiskStats onePass = new RiskStats();
+        onePass.advance(dates, prices, days, PriceHistory.addDays(dates[days - 1], -RiskStats.WINDOW_DAYS));
+
+        assertEquals(onePass.getVolatility(dates), incremental.getVolatility(dates), 1e-9);
+        assertEquals(onePass.getMaxDrawdown(), incremental.getMaxDrawdown(), 0.0);
+        assertEquals(onePass.getHigh(prices), incremental.getHigh(prices), 0.0);
+        assertEquals(onePass.getLow(prices), incremental.getLow(prices), 0.0);
+    }
+
+    @Test
+    public void testEpochDay() {
+        for (int date : new int[] {19700101, 19000301, 20000229, 20160328, 20991231}) {
+            LocalDate expected = LocalDate.of(date / 10000, (date / 100) % 100, date % 100);
+            assertEquals(expected.toEpochDay(), RiskStats.epochDay(date));
+        }
+    }
+}
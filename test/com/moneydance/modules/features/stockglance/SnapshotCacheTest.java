@@ -0,0 +1,157 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saving the engine's state and restoring it in a later session.
+ */
+public class SnapshotCacheTest {
+    private static final int TODAY = 20160328;
+    private static final StockGlanceEngine.Inputs INPUTS =
+        new StockGlanceEngine.Inputs(new HashSet<>(Arrays.asList("Abc Corp", "Xyz Inc")), false, 7, Horizon.DEFAULTS,
+                                     "Xyz Inc", Collections.emptySet());
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("stockglance", ".cache");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(!file.exists() || file.delete());
+    }
+
+    // A book as it is opened in each session.
+    private static InMemoryDataSource book() {
+        InMemoryDataSource source = new InMemoryDataSource();
+        source.addSecurity("ABC", "Abc Corp")
+              .setShares(10.0)
+              .addSnapshot(20150329, 50.0)
+              .addSnapshot(20160227, 80.0)
+              .addSnapshot(20160321, 90.0)
+              .addSnapshot(20160327, 99.0);
+        source.addSecurity("XYZ", "Xyz Inc")
+              .setShares(4.0)
+              .addSnapshot(20160327, 20.0)
+              .addSnapshot(20160328, 25.0);
+        return source;
+    }
+
+    private PortfolioSnapshot<InMemoryDataSource.Security> saveSession() {
+        StockGlanceEngine<InMemoryDataSource.Security> engine = new StockGlanceEngine<>(book());
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(INPUTS, TODAY);
+        new SnapshotCache<InMemoryDataSource.Security>(file).save(engine);
+        assertTrue(file.isFile());
+        return snapshot;
+    }
+
+    @Test
+    public void testRestore() {
+        PortfolioSnapshot<InMemoryDataSource.Security> first = saveSession();
+
+        InMemoryDataSource source = book();
+        InMemoryDataSource.Security abc = source.getSecurities().get(0);
+        InMemoryDataSource.Security xyz = source.getSecurities().get(1);
+        StockGlanceEngine<InMemoryDataSource.Security> engine = new StockGlanceEngine<>(source);
+        SnapshotCache<InMemoryDataSource.Security> cache = new SnapshotCache<>(file);
+        assertTrue(cache.load(engine));
+        assertFalse(cache.load(engine));                    // Only once
+
+        // The last session's prices and returns are shown before anything is computed, but not its balances
+        PortfolioSnapshot<InMemoryDataSource.Security> placeholder = engine.placeholder(INPUTS, TODAY);
+        assertEquals(first.rows.size(), placeholder.rows.size());
+        assertSame(abc, placeholder.rows.get(0).security);
+        assertEquals("Abc Corp", placeholder.rows.get(0).name);                 // From the book
+        double[] values = placeholder.rows.get(0).values;
+        assertEquals(first.rows.get(0).values[SecurityRow.PRICE], values[SecurityRow.PRICE], 0.0);
+        assertEquals(first.rows.get(0).values[SecurityRow.FIRST_RETURN], values[SecurityRow.FIRST_RETURN], 0.0);
+        assertTrue(Double.isNaN(values[SecurityRow.BALANCE]));
+        assertTrue(Double.isNaN(placeholder.totalBaseBalance));
+
+        // The first computation recomputes the rows, from the restored histories
+        abc.addSnapshot(20160328, 100.0);
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(INPUTS, TODAY);
+        assertNotSame(placeholder.rows.get(1), snapshot.computed.get(xyz));
+        assertArrayEquals(first.rows.get(1).values, snapshot.computed.get(xyz).values, 0.0);
+        assertEquals(100.0, snapshot.computed.get(abc).values[SecurityRow.PRICE], 1e-9);
+        assertEquals(first.totalBaseBalance, snapshot.totalBaseBalance, 1e-9);
+    }
+
+    @Test
+    public void testEditedHistoryIsNotRestored() {
+        PortfolioSnapshot<InMemoryDataSource.Security> first = saveSession();
+
+        InMemoryDataSource source = book();
+        InMemoryDataSource.Security abc = source.getSecurities().get(0);
+        InMemoryDataSource.Security xyz = source.getSecurities().get(1);
+        abc.setSnapshotPrice(2, 88.0);                      // Corrected since, with the same count and last entry
+        StockGlanceEngine<InMemoryDataSource.Security> engine = new StockGlanceEngine<>(source);
+        assertTrue(new SnapshotCache<InMemoryDataSource.Security>(file).load(engine));
+        assertNull(engine.getPriceHistory(abc));
+        assertNotNull(engine.getPriceHistory(xyz));
+
+        PortfolioSnapshot<InMemoryDataSource.Security> placeholder = engine.placeholder(INPUTS, TODAY);
+        assertEquals(first.rows.size(), placeholder.rows.size());
+        assertTrue(Double.isNaN(placeholder.rows.get(0).values[SecurityRow.PRICE]));    // Not the stale row
+        assertEquals(first.rows.get(1).values[SecurityRow.PRICE], placeholder.rows.get(1).values[SecurityRow.PRICE],
+                     0.0);
+
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(INPUTS, TODAY);
+        assertEquals(88.0, engine.getPriceHistory(abc).getPrice(20160321, 7), 0.0);
+        assertEquals(first.totalBaseBalance, snapshot.totalBaseBalance, 1e-9);
+    }
+
+    @Test
+    public void testHoldingsAreNotSaved() throws IOException {
+        saveSession();
+        String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(contents.contains("Abc Corp"));
+        assertFalse(contents.contains("Xyz Inc"));
+        ByteBuffer doubles = ByteBuffer.allocate(Double.BYTES);
+        doubles.putDouble(990.0);                                               // Abc's balance
+        assertFalse(contents.contains(new String(doubles.array(), StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void testUnchangedIsNotSaved() {
+        saveSession();
+        long modified = file.lastModified();
+        assertTrue(file.setLastModified(modified - 10000));
+
+        StockGlanceEngine<InMemoryDataSource.Security> engine = new StockGlanceEngine<>(book());
+        SnapshotCache<InMemoryDataSource.Security> cache = new SnapshotCache<>(file);
+        assertTrue(cache.load(engine));
+        cache.save(engine);
+        assertEquals(modified - 10000, file.lastModified());
+    }
+
+    @Test
+    public void testCorruptCacheIsIgnored() throws IOException {
+        saveSession();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+        InMemoryDataSource source = book();
+        StockGlanceEngine<InMemoryDataSource.Security> engine = new StockGlanceEngine<>(source);
+        assertFalse(new SnapshotCache<InMemoryDataSource.Security>(file).load(engine));
+        assertNull(engine.getLastSnapshot());
+        assertNull(engine.getPriceHistory(source.getSecurities().get(0)));
+        assertEquals(2, engine.compute(INPUTS, TODAY).rows.size());
+    }
+}
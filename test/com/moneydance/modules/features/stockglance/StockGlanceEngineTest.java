@@ -0,0 +1,377 @@
+package com.moneydance.modules.features.stockglance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Computing table rows from an in-memory book.
+ */
+public class StockGlanceEngineTest {
+    private static final int TODAY = 20160328;
+
+    private InMemoryDataSource source;
+    private InMemoryDataSource.Security abc;
+    private InMemoryDataSource.Security xyz;
+    private StockGlanceEngine<InMemoryDataSource.Security> engine;
+
+    @Before
+    public void setUp() {
+        source = new InMemoryDataSource();
+        abc = source.addSecurity("ABC", "Abc Corp")
+                    .setShares(10.0)
+                    .addSnapshot(20150329, 50.0)
+                    .addSnapshot(20160227, 80.0)
+                    .addSnapshot(20160321, 90.0)
+                    .addSnapshot(20160327, 99.0)
+                    .addSnapshot(20160328, 100.0);
+        xyz = source.addSecurity("xyz", "Xyz Inc")
+                    .setShares(4.0)
+                    .setBaseRate(0.5)
+                    .addSnapshot(20160327, 20.0)
+                    .addSnapshot(20160328, 25.0);
+        source.addSecurity("NOP", "Not Displayed").addSnapshot(20160328, 1.0);
+        engine = new StockGlanceEngine<>(source);
+    }
+
+    private static StockGlanceEngine.Inputs inputs(boolean allowMissingPrices, String... names) {
+        return new StockGlanceEngine.Inputs(new HashSet<>(Arrays.asList(names)), allowMissingPrices, 7);
+    }
+
+    @Test
+    public void testRows() {
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(inputs(false, "Abc Corp", "Xyz Inc"), TODAY);
+        List<SecurityRow<InMemoryDataSource.Security>> rows = snapshot.rows;
+        assertEquals(2, rows.size());
+        assertSame(abc, rows.get(0).security);
+        assertSame(xyz, rows.get(1).security);
+
+        double[] values = rows.get(0).values;
+        assertEquals(100.0, values[SecurityRow.PRICE], 1e-9);
+        assertEquals(1.0, values[SecurityRow.CHANGE], 1e-9);
+        assertEquals(1000.0, values[SecurityRow.BALANCE], 1e-9);
+        assertEquals(1.0 / 99.0, values[SecurityRow.FIRST_RETURN], 1e-9);
+        assertEquals(10.0 / 90.0, values[SecurityRow.FIRST_RETURN + 1], 1e-9);
+        assertEquals(20.0 / 80.0, values[SecurityRow.FIRST_RETURN + 2], 1e-9);
+        assertEquals(1.0, values[SecurityRow.FIRST_RETURN + 3], 1e-9);
+
+        assertEquals(10.0 + 4.0 / 0.5, snapshot.totalBaseBalance, 1e-9);
+    }
+
+    @Test
+    public void testMissingPrices() {
+        InMemoryDataSource.Security stale = source.addSecurity("OLD", "Old Fund").setShares(1.0).addSnapshot(20100101, 5.0);
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(inputs(false, "Abc Corp", "Old Fund"), TODAY);
+        assertEquals(1, snapshot.rows.size());
+        assertTrue(snapshot.computed.containsKey(stale));
+
+        snapshot = engine.compute(inputs(true, "Abc Corp", "Old Fund"), TODAY);
+        assertEquals(2, snapshot.rows.size());
+        assertTrue(Double.isNaN(snapshot.rows.get(1).values[SecurityRow.PRICE]));
+    }
+
+    @Test
+    public void testSplitAdjustment() {
+        abc.addSplit(20160301, 2.0);
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(inputs(false, "Abc Corp"), TODAY);
+        double[] values = snapshot.rows.get(0).values;
+        assertEquals((100.0 - 40.0) / 40.0, values[SecurityRow.FIRST_RETURN + 2], 1e-9);
+        assertEquals((100.0 - 25.0) / 25.0, values[SecurityRow.FIRST_RETURN + 3], 1e-9);
+    }
+
+    @Test
+    public void testUnchangedRowsAreReused() {
+        StockGlanceEngine.Inputs inputs = inputs(false, "Abc Corp", "Xyz Inc");
+        PortfolioSnapshot<InMemoryDataSource.Security> first = engine.compute(inputs, TODAY);
+        xyz.setShares(5.0);
+        PortfolioSnapshot<InMemoryDataSource.Security> second = engine.compute(inputs, TODAY);
+        assertSame(first.computed.get(abc), second.computed.get(abc));
+        assertNotSame(first.computed.get(xyz), second.computed.get(xyz));
+        assertEquals(125.0, second.computed.get(xyz).values[SecurityRow.BALANCE], 1e-9);
+
+        abc.addSnapshot(20160329, 110.0);
+        PortfolioSnapshot<InMemoryDataSource.Security> third = engine.compute(inputs, 20160329);
+        assertEquals(110.0, third.computed.get(abc).values[SecurityRow.PRICE], 1e-9);
+    }
+
+    @Test
+    public void testSuperseded() {
+        assertNull(engine.compute(inputs(false, "Abc Corp"), TODAY, () -> true));
+        assertNull(engine.getLastSnapshot());
+    }
+
+    @Test
+    public void testConfiguredHorizons() {
+        List<Horizon> horizons = Horizon.parseList("inception, ytd, 7d");
+        StockGlanceEngine.Inputs inputs = new StockGlanceEngine.Inputs(new HashSet<>(Arrays.asList("Abc Corp")),
+                                                                       false, 7, horizons);
+        double[] values = engine.compute(inputs, TODAY).rows.get(0).values;
+        assertEquals(Column.FIXED_COLUMNS + Column.HORIZON_COLUMNS * 3, values.length);
+        assertEquals(1.0, values[SecurityRow.CHANGE], 1e-9);                           // Still the day's change
+        assertEquals(1.0, values[SecurityRow.FIRST_RETURN], 1e-9);                     // From 50 at inception
+        assertTrue(Double.isNaN(values[SecurityRow.FIRST_RETURN + 1]));                // No price near 2015 close
+        assertEquals(10.0 / 90.0, values[SecurityRow.FIRST_RETURN + 2], 1e-9);
+
+        abc.addSnapshot(20151230, 40.0);
+        values = engine.compute(inputs, TODAY).rows.get(0).values;
+        assertEquals(1.5, values[SecurityRow.FIRST_RETURN + 1], 1e-9);
+    }
+
+    @Test
+    public void testHiddenColumnsAreNotComputed() {
+        StockGlanceEngine.Inputs hiding = new StockGlanceEngine.Inputs(new HashSet<>(Arrays.asList("Abc Corp")),
+            false, 7, Horizon.DEFAULTS, new HashSet<>(Arrays.asList("change", "30d")));
+        SecurityRow<InMemoryDataSource.Security> hidden = engine.compute(hiding, TODAY).rows.get(0);
+        assertTrue(Double.isNaN(hidden.values[SecurityRow.CHANGE]));
+        assertTrue(Double.isNaN(hidden.values[SecurityRow.FIRST_RETURN + 2]));
+        assertEquals(100.0, hidden.values[SecurityRow.PRICE], 1e-9);
+        assertEquals(1.0, hidden.values[SecurityRow.FIRST_RETURN + 3], 1e-9);
+
+        // Hiding another column reuses the row; showing one computes it
+        StockGlanceEngine.Inputs hidingMore = new StockGlanceEngine.Inputs(hiding.displayedSecurities, false, 7,
+            Horizon.DEFAULTS, new HashSet<>(Arrays.asList("change", "30d", "price")));
+        assertSame(hidden, engine.compute(hidingMore, TODAY).rows.get(0));
+        SecurityRow<InMemoryDataSource.Security> shown = engine.compute(inputs(false, "Abc Corp"), TODAY).rows.get(0);
+        assertNotSame(hidden, shown);
+        assertEquals(1.0, shown.values[SecurityRow.CHANGE], 1e-9);
+        assertEquals(20.0 / 80.0, shown.values[SecurityRow.FIRST_RETURN + 2], 1e-9);
+    }
+
+    private static int columnIndex(StockGlanceEngine.Inputs inputs, String key) {
+        for (int i = 0; i < inputs.columns.size(); i++) {
+            if (inputs.columns.get(i).key.equals(key)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(key);
+    }
+
+    @Test
+    public void testCostBasis() {
+        abc.addTrade(20150329, 15.0, 600.0).addTrade(20160227, -5.0, 0.0);
+        StockGlanceEngine.Inputs inputs = inputs(false, "Abc Corp", "Xyz Inc");
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(inputs, TODAY);
+        double[] values = snapshot.computed.get(abc).values;
+        assertEquals(400.0, values[columnIndex(inputs, "cost")], 1e-9);
+        assertEquals(1000.0 - 400.0, values[columnIndex(inputs, "gain")], 1e-9);
+        assertEquals(1.5, values[columnIndex(inputs, "gainpct")], 1e-9);
+        assertTrue(Double.isNaN(snapshot.computed.get(xyz).values[columnIndex(inputs, "cost")]));    // No trades
+
+        // A new trade recomputes the row, even though the balance is unchanged
+        SecurityRow<InMemoryDataSource.Security> before = snapshot.computed.get(abc);
+        assertSame(before, engine.compute(inputs, TODAY).computed.get(abc));
+        abc.addTrade(20160301, 5.0, 450.0).addTrade(20160302, -5.0, 0.0);
+        values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(400.0 - 200.0 + 450.0, values[columnIndex(inputs, "cost")], 1e-9);
+    }
+
+    @Test
+    public void testHiddenCostBasisIsNotLookedUp() {
+        int[] lookups = {0};
+        InMemoryDataSource counting = new InMemoryDataSource() {
+            @Override
+            public double getCostBasis(InMemoryDataSource.Security security) {
+                lookups[0]++;
+                return super.getCostBasis(security);
+            }
+        };
+        counting.addSecurity("ABC", "Abc Corp").setShares(1.0).addSnapshot(20160327, 9.0).addSnapshot(TODAY, 10.0);
+        StockGlanceEngine<InMemoryDataSource.Security> countingEngine = new StockGlanceEngine<>(counting);
+        StockGlanceEngine.Inputs hiding = new StockGlanceEngine.Inputs(new HashSet<>(Arrays.asList("Abc Corp")),
+            false, 7, Horizon.DEFAULTS, new HashSet<>(Arrays.asList("cost", "gain", "gainpct")));
+        assertEquals(1, countingEngine.compute(hiding, TODAY).rows.size());
+        assertEquals(0, lookups[0]);
+        countingEngine.compute(inputs(false, "Abc Corp"), TODAY);
+        assertEquals(1, lookups[0]);
+    }
+
+    @Test
+    public void testTotalReturn() {
+        abc.addDistribution(20150601, 3.0).addDistribution(20160301, 2.0).addDistribution(20160327, 1.0);
+        StockGlanceEngine.Inputs inputs = inputs(false, "Abc Corp", "Xyz Inc");
+        double[] values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(1.0 / 99.0, values[columnIndex(inputs, "total1d")], 1e-9);         // Paid on the start date
+        assertEquals(11.0 / 90.0, values[columnIndex(inputs, "total7d")], 1e-9);
+        assertEquals(23.0 / 80.0, values[columnIndex(inputs, "total30d")], 1e-9);
+        assertEquals(56.0 / 50.0, values[columnIndex(inputs, "total365d")], 1e-9);
+        assertEquals(values[columnIndex(inputs, "1d")], values[columnIndex(inputs, "total1d")], 1e-9);
+        assertEquals(0.25, engine.compute(inputs, TODAY).computed.get(xyz).values[columnIndex(inputs, "total1d")],
+                     1e-9);                                                             // Paid nothing
+
+        // A split restates the earlier price and distribution in today's shares
+        abc.addSplit(20160101, 2.0);
+        values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals((100.0 + 1.5 + 2.0 + 1.0 - 25.0) / 25.0, values[columnIndex(inputs, "total365d")], 1e-9);
+        assertEquals(23.0 / 80.0, values[columnIndex(inputs, "total30d")], 1e-9);
+
+        // A new distribution recomputes the row, though no price changed
+        abc.addDistribution(TODAY, 4.0);
+        values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(5.0 / 99.0, values[columnIndex(inputs, "total1d")], 1e-9);
+    }
+
+    @Test
+    public void testRiskColumns() {
+        StockGlanceEngine.Inputs inputs = inputs(false, "Abc Corp", "Xyz Inc");
+        double[] values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(0.0, values[columnIndex(inputs, "drawdown")], 0.0);                // Rose throughout
+        assertEquals(0.0, values[columnIndex(inputs, "fromhigh")], 1e-9);
+        assertEquals(100.0 / 50.0 - 1.0, values[columnIndex(inputs, "fromlow")], 1e-9); // Year starts 20150329
+        assertFalse(Double.isNaN(values[columnIndex(inputs, "volatility")]));
+
+        // A new price is taken in by the next refresh
+        abc.addSnapshot(TODAY, 75.0);
+        values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(75.0 / 100.0 - 1.0, values[columnIndex(inputs, "drawdown")], 1e-9);
+        assertEquals(75.0 / 100.0 - 1.0, values[columnIndex(inputs, "fromhigh")], 1e-9);
+    }
+
+    @Test
+    public void testExcessReturns() {
+        InMemoryDataSource.Security def = source.addSecurity("DEF", "Def Index")     // Not displayed
+                                                .addSnapshot(20160321, 40.0)
+                                                .addSnapshot(20160327, 50.0);
+        StockGlanceEngine.Inputs inputs = new StockGlanceEngine.Inputs(
+            new HashSet<>(Arrays.asList("Abc Corp", "Xyz Inc")), false, 7, Horizon.DEFAULTS, "Def Index",
+            Collections.emptySet());
+        double[] values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(1.0 / 99.0 - 0.0, values[columnIndex(inputs, "excess1d")], 1e-9);  // Def is 50 both days
+        assertEquals(10.0 / 90.0 - 0.25, values[columnIndex(inputs, "excess7d")], 1e-9);
+        assertTrue(Double.isNaN(values[columnIndex(inputs, "excess30d")]));             // No price near 20160227
+        assertTrue(Double.isNaN(engine.compute(inputs(false, "Abc Corp"), TODAY).rows.get(0)
+                                      .values[columnIndex(inputs, "excess1d")]));      // No benchmark
+
+        // A new benchmark price recomputes the rows, though their own prices did not change
+        engine.compute(inputs, TODAY);
+        def.addSnapshot(TODAY, 55.0);
+        values = engine.compute(inputs, TODAY).computed.get(abc).values;
+        assertEquals(1.0 / 99.0 - 0.1, values[columnIndex(inputs, "excess1d")], 1e-9);
+    }
+
+    @Test
+    public void testEditedSnapshotIsShownAfterVerify() {
+        StockGlanceEngine.Inputs inputs = inputs(false, "Abc Corp");
+        engine.compute(inputs, TODAY);
+        abc.setSnapshotPrice(3, 98.0);                                          // Yesterday's quote corrected
+        assertEquals(1.0, engine.compute(inputs, TODAY).rows.get(0).values[SecurityRow.CHANGE], 1e-9);
+
+        engine.verifyHistories();
+        assertEquals(2.0, engine.compute(inputs, TODAY).rows.get(0).values[SecurityRow.CHANGE], 1e-9);
+    }
+
+    @Test
+    public void testCorrelationsAreReused() {
+        InMemoryDataSource.Security def = source.addSecurity("DEF", "Def Fund")
+                                                .addSnapshot(20160227, 28.0)
+                                                .addSnapshot(20160321, 30.0)
+                                                .addSnapshot(20160327, 33.0)
+                                                .addSnapshot(20160328, 32.0);
+        HashSet<String> names = new HashSet<>(Arrays.asList("Def Fund", "Abc Corp"));
+        CorrelationMatrix<InMemoryDataSource.Security> matrix = engine.correlate(names, TODAY);
+        assertEquals(Arrays.asList(abc, def), matrix.securities);
+        assertEquals(3, matrix.returnCount);                                            // From 27 Feb
+        assertSame(matrix, engine.correlate(names, TODAY));
+
+        def.addSnapshot(20160329, 31.0);
+        assertNotSame(matrix, engine.correlate(names, TODAY));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        HashSet<String> names = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            InMemoryDataSource.Security security = source.addSecurity("S" + i, "Security " + i).setShares(i % 7);
+            for (int day = 1; day <= 28; day++) {
+                security.addSnapshot(20160300 + day, 10.0 + (i * 31 + day * 17) % 23);
+            }
+            names.add("Security " + i);
+        }
+        StockGlanceEngine.Inputs inputs = new StockGlanceEngine.Inputs(names, false, 7);
+        engine.setParallelThreshold(Integer.MAX_VALUE);
+        PortfolioSnapshot<InMemoryDataSource.Security> sequential = engine.compute(inputs, TODAY);
+        StockGlanceEngine<InMemoryDataSource.Security> parallelEngine = new StockGlanceEngine<>(source);
+        parallelEngine.setParallelThreshold(1);
+        PortfolioSnapshot<InMemoryDataSource.Security> parallel = parallelEngine.compute(inputs, TODAY);
+
+        assertEquals(sequential.rows.size(), parallel.rows.size());
+        for (int i = 0; i < sequential.rows.size(); i++) {
+            assertSame(sequential.rows.get(i).security, parallel.rows.get(i).security);
+            assertArrayEquals(sequential.rows.get(i).values, parallel.rows.get(i).values, 0.0);
+        }
+        assertEquals(Double.doubleToLongBits(sequential.totalBaseBalance),
+                     Double.doubleToLongBits(parallel.totalBaseBalance));
+        assertNull(parallelEngine.compute(inputs, TODAY + 1, () -> true));
+    }
+
+    @Test
+    public void testParallelReadsSourceOnCallingThread() {
+        Set<Thread> readers = Collections.synchronizedSet(new HashSet<>());
+        InMemoryDataSource recording = new InMemoryDataSource() {
+            @Override
+            public double getBalance(Security security) {
+                readers.add(Thread.currentThread());
+                return super.getBalance(security);
+            }
+
+            @Override
+            public void loadSnapshots(Security security, int from, int to, int[] dates, double[] prices) {
+                readers.add(Thread.currentThread());
+                super.loadSnapshots(security, from, to, dates, prices);
+            }
+        };
+        HashSet<String> names = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            InMemoryDataSource.Security security = recording.addSecurity("S" + i, "Security " + i).setShares(1);
+            security.addSnapshot(20160301, 10.0 + i);
+            security.addSnapshot(20160328, 11.0 + i);
+            names.add("Security " + i);
+        }
+        StockGlanceEngine<InMemoryDataSource.Security> parallelEngine = new StockGlanceEngine<>(recording);
+        parallelEngine.setParallelThreshold(1);
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot =
+            parallelEngine.compute(new StockGlanceEngine.Inputs(names, false, 7), TODAY);
+
+        assertEquals(100, snapshot.rows.size());
+        assertEquals(Collections.singleton(Thread.currentThread()), readers);
+    }
+
+    @Test
+    public void testPlaceholder() {
+        PortfolioSnapshot<InMemoryDataSource.Security> placeholder = engine.placeholder(inputs(false, "Abc Corp", "Xyz Inc"), TODAY);
+        assertEquals(2, placeholder.rows.size());
+        assertEquals("ABC", placeholder.rows.get(0).symbol);
+        assertTrue(Double.isNaN(placeholder.rows.get(0).values[SecurityRow.PRICE]));
+        assertTrue(Double.isNaN(placeholder.totalBaseBalance));
+        assertNull(engine.getLastSnapshot());
+    }
+
+    @Test
+    public void testProgress() {
+        List<PortfolioSnapshot<InMemoryDataSource.Security>> partials = new ArrayList<>();
+        long slowSecurity = StockGlanceEngine.PROGRESS_INTERVAL / 1000000 + 50;
+        PortfolioSnapshot<InMemoryDataSource.Security> snapshot = engine.compute(inputs(false, "Abc Corp", "Xyz Inc"), TODAY, () -> {
+            try {
+                Thread.sleep(slowSecurity);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }, partials::add);
+
+        assertFalse(partials.isEmpty());
+        PortfolioSnapshot<InMemoryDataSource.Security> first = partials.get(0);
+        assertEquals(2, first.rows.size());
+        assertEquals(100.0, first.rows.get(0).values[SecurityRow.PRICE], 1e-9);        // Computed
+        assertTrue(Double.isNaN(first.rows.get(1).values[SecurityRow.PRICE]));         // Placeholder
+        assertSame(snapshot, engine.getLastSnapshot());
+        assertEquals(25.0, snapshot.rows.get(1).values[SecurityRow.PRICE], 1e-9);
+    }
+}